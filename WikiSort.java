@@ -14,12 +14,21 @@
 import java.util.*;
 import java.lang.*;
 import java.io.*;
+import java.util.function.*;
 
 class Test {
 	public int value;
 	public int index;
 }
 
+// a record with a composite key, for benchmarking MultiKeySorter
+class TestRecord {
+	public int tenant;
+	public long timestamp;
+	public int sequence;
+	public String name;
+}
+
 class TestComparator implements Comparator<Test> {
     public int compare(Test a, Test b) {
     	if (a.value < b.value) return -1;
@@ -28,6 +37,21 @@ class TestComparator implements Comparator<Test> {
     }
 }
 
+// wraps another comparator and counts how many times it was called
+class CountingComparator<T> implements Comparator<T> {
+	public Comparator<T> comp;
+	public long count;
+	
+	public CountingComparator(Comparator<T> comp1) {
+		comp = comp1;
+	}
+	
+	public int compare(T a, T b) {
+		count++;
+		return comp.compare(a, b);
+	}
+}
+
 // structure to represent ranges within the array
 class Range {
 	public int start;
@@ -64,6 +88,9 @@ class WikiSorter<T> {
 	private static int cache_size = 512;
 	private T[] cache;
 	
+	// when searching for unique values, runs of equal values longer than this are skipped with a binary search
+	static final int MIN_SKIP = 8;
+	
 	public WikiSorter() {
 		@SuppressWarnings("unchecked")
 		T[] cache1 = (T[])new Object[cache_size];
@@ -75,6 +102,34 @@ class WikiSorter<T> {
 		new WikiSorter<T>().Sort(array, comp);
 	}
 	
+	public static <T> WikiSortJob<T> start(T[] array, Comparator<T> comp) {
+		return new WikiSorter<T>().Start(array, comp);
+	}
+	
+	public static <T> int sortDistinct(T[] array, Comparator<T> comp) {
+		return new WikiSorter<T>().SortDistinct(array, comp, false);
+	}
+	
+	public static <T> int sortDistinct(T[] array, Comparator<T> comp, boolean keep_last) {
+		return new WikiSorter<T>().SortDistinct(array, comp, keep_last);
+	}
+	
+	public static <T> void resort(T[] array, Range[] dirty, Comparator<T> comp) {
+		new WikiSorter<T>().Resort(array, dirty, comp);
+	}
+	
+	public static <T> void resort(T[] array, int[] dirty, Comparator<T> comp) {
+		new WikiSorter<T>().Resort(array, dirty, comp);
+	}
+	
+	public static <T> int partition(T[] array, Predicate<T> pred) {
+		return new WikiSorter<T>().Partition(array, pred);
+	}
+	
+	public static <T> int[] groupBy(T[] array, ToIntFunction<T> key, int k) {
+		return new WikiSorter<T>().GroupBy(array, key, k);
+	}
+	
 	// toolbox functions used by the sorter
 	
 	// 63 -> 32, 64 -> 64, etc.
@@ -117,6 +172,33 @@ class WikiSorter<T> {
 		return start;
 	}
 	
+	// same as BinaryFirst, but it checks 1, 2, 4, 8... values in from the start of the range before binary searching,
+	// so it only takes O(log distance) comparisons to find a value that's close to the start of a large range
+	int GallopFirst(T array[], T value, Range range, Comparator<T> comp) {
+		int start = range.start, skip = 1;
+		while (start + skip <= range.end) {
+			int probe = start + skip - 1;
+			if (comp.compare(array[probe], value) >= 0)
+				return BinaryFirst(array, value, new Range(start, probe), comp);
+			start = probe + 1;
+			skip += skip;
+		}
+		return BinaryFirst(array, value, new Range(start, range.end), comp);
+	}
+	
+	// same as BinaryLast, but galloping from the start of the range like GallopFirst
+	int GallopLast(T array[], T value, Range range, Comparator<T> comp) {
+		int start = range.start, skip = 1;
+		while (start + skip <= range.end) {
+			int probe = start + skip - 1;
+			if (comp.compare(value, array[probe]) < 0)
+				return BinaryLast(array, value, new Range(start, probe), comp);
+			start = probe + 1;
+			skip += skip;
+		}
+		return BinaryLast(array, value, new Range(start, range.end), comp);
+	}
+	
 	// n^2 sorting algorithm used to sort tiny chunks of the full array
 	void InsertionSort(T array[], Range range, Comparator<T> comp) {
 		for (int i = range.start + 1; i < range.end; i++) {
@@ -182,453 +264,2467 @@ class WikiSorter<T> {
 		Reverse(array, range);
 	}
 	
-	// standard merge operation using an internal buffer
-	void Merge(T array[], Range buffer, Range A, Range B, Comparator<T> comp) {
-		// if A fits into the cache, use that instead of the internal buffer
-		if (A.length() <= cache_size) {
-			int A_index = 0;
-			int B_index = B.start;
-			int insert_index = A.start;
-			int A_last = A.length();
-			int B_last = B.end;
-			
-			if (B.length() > 0 && A.length() > 0) {
-				while (true) {
-					if (comp.compare(array[B_index], cache[A_index]) >= 0) {
-						array[insert_index] = cache[A_index];
-						A_index++;
-						insert_index++;
-						if (A_index == A_last) break;
-					} else {
-						array[insert_index] = array[B_index];
-						B_index++;
-						insert_index++;
-						if (B_index == B_last) break;
-					}
-				}
+	// rotate a range within the job's array right away if that fits into what's left of the current step,
+	// otherwise leave it for ContinueRotate, which the job calls before doing anything else
+	void RotateInSteps(WikiSortJob<T> job, int amount, Range range, boolean use_cache) {
+		if (range.length() <= job.work) {
+			Rotate(job.array, amount, range, use_cache);
+			job.work -= range.length();
+			return;
+		}
+		
+		job.rotate.set(range.start, range.end);
+		job.rotate_split = (amount >= 0) ? range.start + amount : range.end + amount;
+		job.rotate_swapped = 0;
+	}
+	
+	// continue the job's rotation by swapping the smaller side with the values next to it, which puts them where they belong,
+	// then rotating what's left. it can stop partway through any of those block swaps, so a step never moves more than it's allowed to
+	// (this never uses the cache, since RollBlock might be keeping the previous A block in it)
+	void ContinueRotate(WikiSortJob<T> job) {
+		Range range = job.rotate;
+		while (job.work > 0) {
+			int left = job.rotate_split - range.start, right = range.end - job.rotate_split;
+			if (left == 0 || right == 0) {
+				range.set(0, 0);
+				return;
 			}
 			
-			// copy the remainder of A into the final array
-			java.lang.System.arraycopy(cache, A_index, array, insert_index, A_last - A_index);
-			
-		} else {
-			// whenever we find a value to add to the final array, swap it with the value that's already in that spot
-			// when this algorithm is finished, 'buffer' will contain its original contents, but in a different order
-			int A_count = 0, B_count = 0, insert = 0;
-			
-			if (B.length() > 0 && A.length() > 0) {
-				while (true) {
-					if (comp.compare(array[B.start + B_count], array[buffer.start + A_count]) >= 0) {
-						T swap = array[A.start + insert];
-						array[A.start + insert] = array[buffer.start + A_count];
-						array[buffer.start + A_count] = swap;
-						A_count++;
-						insert++;
-						if (A_count >= A.length()) break;
-					} else {
-						T swap = array[A.start + insert];
-						array[A.start + insert] = array[B.start + B_count];
-						array[B.start + B_count] = swap;
-						B_count++;
-						insert++;
-						if (B_count >= B.length()) break;
-					}
+			if (left <= right) {
+				// [A][B1 B2] -> [B1][A][B2], then rotate [A][B2]
+				int count = Math.min(left - job.rotate_swapped, job.work);
+				BlockSwap(job.array, range.start + job.rotate_swapped, job.rotate_split + job.rotate_swapped, count);
+				job.rotate_swapped += count;
+				job.work -= count;
+				if (job.rotate_swapped == left) {
+					range.start += left;
+					job.rotate_split += left;
+					job.rotate_swapped = 0;
+				}
+			} else {
+				// [A1 A2][B] -> [A1][B][A2], then rotate [A1][B]
+				int count = Math.min(right - job.rotate_swapped, job.work);
+				BlockSwap(job.array, job.rotate_split - right + job.rotate_swapped, job.rotate_split + job.rotate_swapped, count);
+				job.rotate_swapped += count;
+				job.work -= count;
+				if (job.rotate_swapped == right) {
+					range.end -= right;
+					job.rotate_split -= right;
+					job.rotate_swapped = 0;
 				}
 			}
-			
-			// swap the remainder of A into the final array
-			BlockSwap(array, buffer.start + A_count, A.start + insert, A.length() - A_count);
 		}
 	}
 	
-	// bottom-up merge sort combined with an in-place merge algorithm for O(1) memory use
-	void Sort(T array[], Comparator<T> comp) {
-		int size = array.length;
+	// merge operation where A has already been copied into the cache
+	void MergeExternal(T array[], Range A, Range B, Comparator<T> comp) {
+		int A_index = 0;
+		int B_index = B.start;
+		int insert_index = A.start;
+		int A_last = A.length();
+		int B_last = B.end;
 		
-		// if there are 32 or fewer items, just insertion sort the entire array
-		if (size <= 32) {
-			InsertionSort(array, new Range(0, size), comp);
-			return;
+		if (B.length() > 0 && A.length() > 0) {
+			while (true) {
+				if (comp.compare(array[B_index], cache[A_index]) >= 0) {
+					array[insert_index] = cache[A_index];
+					A_index++;
+					insert_index++;
+					if (A_index == A_last) break;
+				} else {
+					array[insert_index] = array[B_index];
+					B_index++;
+					insert_index++;
+					if (B_index == B_last) break;
+				}
+			}
 		}
 		
-		// calculate how to scale the index value to the range within the array
-		// (this is essentially fixed-point math, where we manually check for and handle overflow)
-		int power_of_two = FloorPowerOfTwo(size);
-		int fractional_base = power_of_two/16;
-		int fractional_step = size % fractional_base;
-		int decimal_step = size/fractional_base;
+		// copy the remainder of A into the final array
+		java.lang.System.arraycopy(cache, A_index, array, insert_index, A_last - A_index);
+	}
+	
+	// get ready to merge A, which has already been copied into the cache (if it fits) or swapped into buffer2, with the B values after it
+	void StartMerge(WikiSortJob<T> job, Range A, Range B) {
+		job.merge_A.set(A.start, A.end);
+		job.merge_B.set(B.start, B.end);
+		job.merge_A_count = job.merge_B_count = job.merge_insert = 0;
+		job.merging = true;
+	}
+	
+	// continue the merge started by StartMerge, stopping if the step runs out of work, and return true once it's finished
+	// if A is in buffer2, whenever we find a value to add to the final array, swap it with the value that's already in that spot
+	// when the merge is finished, buffer2 will contain its original contents, but in a different order
+	boolean MergeStep(WikiSortJob<T> job) {
+		T array[] = job.array;
+		Comparator<T> comp = job.comp;
+		Range A = job.merge_A, B = job.merge_B;
+		int A_count = job.merge_A_count, B_count = job.merge_B_count, insert = A.start + job.merge_insert;
+		int A_last = A.length(), B_last = B.length(), buffer = job.buffer2.start;
+		boolean external = (A_last <= cache_size);
+		int work = job.work;
 		
-		// first insertion sort everything the lowest level, which is 16-31 items at a time
-		int decimal = 0, fractional = 0;
-		while (decimal < size) {
-			int start = decimal;
-			
-			decimal += decimal_step;
-			fractional += fractional_step;
-			if (fractional >= fractional_base) {
-				fractional -= fractional_base;
-				decimal++;
+		if (external) {
+			while (A_count < A_last && B_count < B_last && work > 0) {
+				if (comp.compare(array[B.start + B_count], cache[A_count]) >= 0)
+					array[insert++] = cache[A_count++];
+				else
+					array[insert++] = array[B.start + B_count++];
+				work--;
+			}
+		} else {
+			while (A_count < A_last && B_count < B_last && work > 0) {
+				T swap = array[insert];
+				if (comp.compare(array[B.start + B_count], array[buffer + A_count]) >= 0) {
+					array[insert] = array[buffer + A_count];
+					array[buffer + A_count++] = swap;
+				} else {
+					array[insert] = array[B.start + B_count];
+					array[B.start + B_count++] = swap;
+				}
+				insert++;
+				work--;
 			}
+		}
+		
+		job.work = work;
+		job.merge_A_count = A_count;
+		job.merge_B_count = B_count;
+		job.merge_insert = insert - A.start;
+		if (A_count < A_last && B_count < B_last) return false;
+		
+		// copy (or swap) the remainder of A into the final array
+		if (external)
+			java.lang.System.arraycopy(cache, A_count, array, insert, A_last - A_count);
+		else
+			BlockSwap(array, buffer + A_count, insert, A_last - A_count);
+		job.work -= A_last - A_count;
+		job.merging = false;
+		return true;
+	}
+	
+	// merge operation without a buffer, which is optimized for arrays with a lot of the same values repeated
+	// it finds where each A value goes in B and rotates it into place, so it's only fast when there are few unique values
+	// each call does one of those rotations (which can move most of A), and the job calls it again until A or B is empty
+	void MergeInPlace(WikiSortJob<T> job) {
+		T array[] = job.array;
+		Comparator<T> comp = job.comp;
+		Range A = job.A, B = job.B;
+		
+		if (job.in_place_amount >= 0) {
+			// the rotation from the previous call is finished, so calculate the new A and B ranges
+			int amount = job.in_place_amount;
+			B.start = A.end + amount;
+			A.set(BinaryLast(array, array[A.start + amount], A, comp), B.start);
+			job.in_place_amount = -1;
+		}
+		
+		if (A.length() == 0 || B.length() == 0) {
+			job.phase = WikiSortJob.IDLE;
+			return;
+		}
+		
+		// find the first place in B where the first item in A needs to be inserted, then rotate A into place
+		int split = BinaryFirst(array, array[A.start], B, comp);
+		job.in_place_amount = split - A.end;
+		job.work--;
+		RotateInSteps(job, -job.in_place_amount, new Range(A.start, split), true);
+	}
+	
+	// merge operation without a buffer, for when B is much smaller than A
+	// it works backward from the end, rotating each run of A values that belongs after the last B value past all of B,
+	// so every A value is only moved once and it only needs O(B log A) comparisons
+	void MergeTail(T array[], Range A, Range B, Comparator<T> comp) {
+		while (A.length() > 0 && B.length() > 0) {
+			// the B values that are >= the last A value are already where they belong
+			B.end = BinaryFirst(array, array[A.end - 1], B, comp);
+			if (B.length() == 0) break;
 			
-			int end = decimal;
+			// find the A values that need to go after the last remaining B value, and rotate them past B
+			int split = BinaryLast(array, array[B.end - 1], A, comp);
+			Rotate(array, A.end - split, new Range(split, B.end), true);
 			
-			InsertionSort(array, new Range(start, end), comp);
+			// calculate the new A and B ranges
+			B.set(split, split + B.length());
+			A.end = split;
+		}
+	}
+	
+	// starting at buffer.start, walk forward until 'goal' unique values have been counted (including the 'count' already found)
+	// buffer will cover the unique values found, or fewer than 'goal' of them if we reached the end first
+	// long runs of equal values are skipped with a binary search, so this takes O(goal log n) comparisons at most
+	void FindUniqueForward(T array[], Range buffer, int end, int count, int goal, Comparator<T> comp) {
+		int run = 0;
+		while (buffer.start < end) {
+			if (comp.compare(array[buffer.start - 1], array[buffer.start]) != 0) {
+				if (++count == goal) break;
+				buffer.start++;
+				run = 0;
+			} else if (++run < MIN_SKIP) {
+				buffer.start++;
+			} else {
+				buffer.start = BinaryLast(array, array[buffer.start], new Range(buffer.start, end), comp);
+				run = 0;
+			}
+		}
+		buffer.end = buffer.start + count;
+	}
+	
+	// same as above, but walking backward from buffer.start until reaching 'start'
+	void FindUniqueBackward(T array[], Range buffer, int start, int count, int goal, Comparator<T> comp) {
+		int run = 0;
+		while (buffer.start >= start) {
+			if (comp.compare(array[buffer.start], array[buffer.start + 1]) != 0) {
+				if (++count == goal) break;
+				buffer.start--;
+				run = 0;
+			} else if (++run < MIN_SKIP) {
+				buffer.start--;
+			} else {
+				buffer.start = BinaryFirst(array, array[buffer.start + 1], new Range(start, buffer.start + 1), comp) - 1;
+				run = 0;
+			}
 		}
+		buffer.end = buffer.start + count;
+	}
+	
+	// move the unique values that end at bufferA.start to the start of A, rotating the ones found so far past each run of equal values
+	// long runs are skipped with a binary search and long rotations are left for ContinueRotate, so this can stop and pick up where it left off
+	void PullUniqueToStart(WikiSortJob<T> job) {
+		T array[] = job.array;
+		Comparator<T> comp = job.comp;
+		Range buffer = job.bufferA;
+		int start = job.A.start;
 		
-		// we need to keep track of a lot of ranges during this sort!
-		Range bufferA = new Range(), bufferB = new Range();
-		Range buffer1 = new Range(), buffer2 = new Range();
-		Range blockA = new Range(), blockB = new Range();
-		Range lastA = new Range(), lastB = new Range();
-		Range firstA = new Range();
-		Range level1 = new Range(), level2 = new Range();
-		Range levelA = new Range(), levelB = new Range();
-		Range A = new Range(), B = new Range();
+		while (job.pull_count < job.pull_length && job.work > 0) {
+			int index = job.index;
+			if (index == start || comp.compare(array[index - 1], array[index]) != 0) {
+				RotateInSteps(job, -job.pull_count, new Range(index + 1, buffer.start + 1), true);
+				buffer.start = index + job.pull_count;
+				job.pull_count++;
+				job.index = index - 1;
+				job.pull_run = 0;
+				job.work--;
+				if (job.rotate.length() > 0) return;
+			} else if (++job.pull_run < MIN_SKIP) {
+				job.index = index - 1;
+				job.work--;
+			} else {
+				job.index = BinaryFirst(array, array[index], new Range(start, index), comp);
+				job.pull_run = 0;
+				job.work -= 32 - Integer.numberOfLeadingZeros(index - start);
+			}
+		}
 		
-		// then merge sort the higher levels, which can be 32-63, 64-127, 128-255, etc.
-		for (int merge_size = 16; merge_size < power_of_two; merge_size += merge_size) {
-			int block_size = (int)Math.sqrt(decimal_step);
-			int buffer_size = decimal_step/block_size + 1;
+		if (job.pull_count == job.pull_length) {
+			buffer.set(start, start + job.pull_length);
+			job.index = job.bufferB.start;
+			job.pull_count = job.pull_run = 0;
+			job.pull_length = job.bufferB.length();
+			job.phase = WikiSortJob.PULL_B;
+		}
+	}
+	
+	// move the unique values that start at bufferB.start to the end of B, the same way
+	// once they're there, the buffers are saved for the rest of this level and the A blocks start rolling through B
+	void PullUniqueToEnd(WikiSortJob<T> job) {
+		T array[] = job.array;
+		Comparator<T> comp = job.comp;
+		Range buffer = job.bufferB;
+		int end = job.B.end;
+		
+		while (job.pull_count < job.pull_length && job.work > 0) {
+			int index = job.index;
+			if (index == end - 1 || comp.compare(array[index], array[index + 1]) != 0) {
+				RotateInSteps(job, job.pull_count, new Range(buffer.start, index), true);
+				buffer.start = index - job.pull_count;
+				job.pull_count++;
+				job.index = index + 1;
+				job.pull_run = 0;
+				job.work--;
+				if (job.rotate.length() > 0) return;
+			} else if (++job.pull_run < MIN_SKIP) {
+				job.index = index + 1;
+				job.work--;
+			} else {
+				job.index = BinaryLast(array, array[index], new Range(index, end), comp) - 1;
+				job.pull_run = 0;
+				job.work -= 32 - Integer.numberOfLeadingZeros(end - index);
+			}
+		}
+		
+		if (job.pull_count == job.pull_length) {
+			buffer.set(end - job.pull_length, end);
 			
-			// as an optimization, we really only need to pull out an internal buffer once for each level of merges
-			// after that we can reuse the same buffer over and over, then redistribute it when we're finished with this level
-			level1.set(0, 0);
+			// reuse these buffers next time!
+			job.level1.set(job.buffer1.start, job.buffer1.end);
+			job.level2.set(job.buffer2.start, job.buffer2.end);
+			job.levelA.set(job.bufferA.start, job.bufferA.end);
+			job.levelB.set(job.bufferB.start, job.bufferB.end);
+			RollBlocksStart(job);
+		}
+	}
+	
+	// try to fill up two buffers with unique values in ascending order, then leave the job pulling them out to the start of A and the end of B
+	// returns false if there weren't enough unique values to do so
+	boolean ExtractBuffers(WikiSortJob<T> job) {
+		T array[] = job.array;
+		Comparator<T> comp = job.comp;
+		int buffer_size = job.buffer_size;
+		Range bufferA = job.bufferA, bufferB = job.bufferB;
+		Range buffer1 = job.buffer1, buffer2 = job.buffer2;
+		Range A = job.A, B = job.B;
+		
+		// the first item is always going to be the first unique value, so let's start searching at the next index
+		buffer1.start = A.start + 1;
+		FindUniqueForward(array, buffer1, A.end, 1, buffer_size, comp);
+		
+		// if the size of each block fits into the cache, we only need one buffer for tagging the A blocks
+		// this is because the other buffer is used as a swap space for merging the A blocks into the B values that follow it,
+		// but we can just use the cache as the buffer instead. this skips some memmoves and an insertion sort
+		if (buffer_size <= cache_size) {
+			buffer2.set(A.start, A.start);
 			
-			decimal = fractional = 0;
-			while (decimal < size) {
-				int start = decimal;
+			if (buffer1.length() == buffer_size) {
+				// we found enough values for the buffer in A
+				bufferA.set(buffer1.start, buffer1.start + buffer_size);
+				bufferB.set(B.end, B.end);
+				buffer1.set(A.start, A.start + buffer_size);
 				
-				decimal += decimal_step;
-				fractional += fractional_step;
-				if (fractional >= fractional_base) {
-					fractional -= fractional_base;
-					decimal++;
-				}
+			} else {
+				// we were unable to find enough unique values in A, so try B
+				bufferA.set(buffer1.start, buffer1.start);
+				buffer1.set(A.start, A.start);
 				
-				int mid = decimal;
+				// the last value is guaranteed to be the first unique value we encounter, so we can start searching at the next index
+				buffer1.start = B.end - 2;
+				FindUniqueBackward(array, buffer1, B.start, 1, buffer_size, comp);
 				
-				decimal += decimal_step;
-				fractional += fractional_step;
-				if (fractional >= fractional_base) {
-					fractional -= fractional_base;
-					decimal++;
+				if (buffer1.length() == buffer_size) {
+					bufferB.set(buffer1.start, buffer1.start + buffer_size);
+					buffer1.set(B.end - buffer_size, B.end);
 				}
+			}
+		} else {
+			// the first item of the second buffer isn't guaranteed to be the first unique value, so we need to find the first unique item too
+			buffer2.start = buffer1.start + 1;
+			FindUniqueForward(array, buffer2, A.end, 0, buffer_size, comp);
+			
+			if (buffer2.length() == buffer_size) {
+				// we found enough values for both buffers in A
+				bufferA.set(buffer2.start, buffer2.start + buffer_size * 2);
+				bufferB.set(B.end, B.end);
+				buffer1.set(A.start, A.start + buffer_size);
+				buffer2.set(A.start + buffer_size, A.start + buffer_size * 2);
 				
-				int end = decimal;
+			} else if (buffer1.length() == buffer_size) {
+				// we found enough values for one buffer in A, so we'll need to find one buffer in B
+				bufferA.set(buffer1.start, buffer1.start + buffer_size);
+				buffer1.set(A.start, A.start + buffer_size);
 				
-				if (comp.compare(array[end - 1], array[start]) < 0) {
-					// the two ranges are in reverse order, so a simple rotation should fix it
-					Rotate(array, mid - start, new Range(start, end), true);
-					
-				} else if (comp.compare(array[mid], array[mid - 1]) < 0) {
-					// these two ranges weren't already in order, so we'll need to merge them!
-					A.set(start, mid);
-					B.set(mid, end);
-					
-					// try to fill up two buffers with unique values in ascending order
-					if (A.length() <= cache_size) {
-						java.lang.System.arraycopy(array, A.start, cache, 0, A.length());
-						Merge(array, buffer2, A, B, comp);
-						continue;
-					}
-					
-					// try to fill up two buffers with unique values in ascending order
-					if (level1.length() > 0) {
-						// reuse the buffers we found in a previous iteration
-						bufferA.set(A.start, A.start);
-						bufferB.set(B.end, B.end);
-						buffer1.set(level1.start, level1.end);
-						buffer2.set(level2.start, level2.end);
-						
-					} else {
-						// the first item is always going to be the first unique value, so let's start searching at the next index
-						int count = 1;
-						for (buffer1.start = A.start + 1; buffer1.start < A.end; buffer1.start++)
-							if (comp.compare(array[buffer1.start - 1], array[buffer1.start]) != 0)
-								if (++count == buffer_size)
-									break;
-						buffer1.end = buffer1.start + count;
-						
-						// if the size of each block fits into the cache, we only need one buffer for tagging the A blocks
-						// this is because the other buffer is used as a swap space for merging the A blocks into the B values that follow it,
-						// but we can just use the cache as the buffer instead. this skips some memmoves and an insertion sort
-						if (buffer_size <= cache_size) {
-							buffer2.set(A.start, A.start);
-							
-							if (buffer1.length() == buffer_size) {
-								// we found enough values for the buffer in A
-								bufferA.set(buffer1.start, buffer1.start + buffer_size);
-								bufferB.set(B.end, B.end);
-								buffer1.set(A.start, A.start + buffer_size);
-								
-							} else {
-								// we were unable to find enough unique values in A, so try B
-								bufferA.set(buffer1.start, buffer1.start);
-								buffer1.set(A.start, A.start);
-								
-								// the last value is guaranteed to be the first unique value we encounter, so we can start searching at the next index
-								count = 1;
-								for (buffer1.start = B.end - 2; buffer1.start >= B.start; buffer1.start--)
-									if (comp.compare(array[buffer1.start], array[buffer1.start + 1]) != 0)
-										if (++count == buffer_size)
-											break;
-								buffer1.end = buffer1.start + count;
-								
-								if (buffer1.length() == buffer_size) {
-									bufferB.set(buffer1.start, buffer1.start + buffer_size);
-									buffer1.set(B.end - buffer_size, B.end);
-								}
-							}
-						} else {
-							// the first item of the second buffer isn't guaranteed to be the first unique value, so we need to find the first unique item too
-							count = 0;
-							for (buffer2.start = buffer1.start + 1; buffer2.start < A.end; buffer2.start++)
-								if (comp.compare(array[buffer2.start - 1], array[buffer2.start]) != 0)
-									if (++count == buffer_size)
-										break;
-							buffer2.end = buffer2.start + count;
-							
-							if (buffer2.length() == buffer_size) {
-								// we found enough values for both buffers in A
-								bufferA.set(buffer2.start, buffer2.start + buffer_size * 2);
-								bufferB.set(B.end, B.end);
-								buffer1.set(A.start, A.start + buffer_size);
-								buffer2.set(A.start + buffer_size, A.start + buffer_size * 2);
-								
-							} else if (buffer1.length() == buffer_size) {
-								// we found enough values for one buffer in A, so we'll need to find one buffer in B
-								bufferA.set(buffer1.start, buffer1.start + buffer_size);
-								buffer1.set(A.start, A.start + buffer_size);
-								
-								// like before, the last value is guaranteed to be the first unique value we encounter, so we can start searching at the next index
-								count = 1;
-								for (buffer2.start = B.end - 2; buffer2.start >= B.start; buffer2.start--)
-									if (comp.compare(array[buffer2.start], array[buffer2.start + 1]) != 0)
-										if (++count == buffer_size)
-											break;
-								buffer2.end = buffer2.start + count;
-								
-								if (buffer2.length() == buffer_size) {
-									bufferB.set(buffer2.start, buffer2.start + buffer_size);
-									buffer2.set(B.end - buffer_size, B.end);
-									
-								} else buffer1.end = buffer1.start; // failure
-							} else {
-								// we were unable to find a single buffer in A, so we'll need to find two buffers in B
-								count = 1;
-								for (buffer1.start = B.end - 2; buffer1.start >= B.start; buffer1.start--)
-									if (comp.compare(array[buffer1.start], array[buffer1.start + 1]) != 0)
-										if (++count == buffer_size)
-											break;
-								buffer1.end = buffer1.start + count;
-								
-								count = 0;
-								for (buffer2.start = buffer1.start - 1; buffer2.start >= B.start; buffer2.start--)
-									if (comp.compare(array[buffer2.start], array[buffer2.start + 1]) != 0)
-										if (++count == buffer_size)
-											break;
-								buffer2.end = buffer2.start + count;
-								
-								if (buffer2.length() == buffer_size) {
-									bufferA.set(A.start, A.start);
-									bufferB.set(buffer2.start, buffer2.start + buffer_size * 2);
-									buffer1.set(B.end - buffer_size, B.end);
-									buffer2.set(buffer1.start - buffer_size, buffer1.start);
-									
-								} else buffer1.end = buffer1.start; // failure
-							}
-						}
-						
-						if (buffer1.length() < buffer_size) {
-							// we failed to fill both buffers with unique values, which implies we're merging two subarrays with a lot of the same values repeated
-							// we can use this knowledge to write a merge operation that is optimized for arrays of repeating values
-							while (A.length() > 0 && B.length() > 0) {
-								// find the first place in B where the first item in A needs to be inserted
-								int split = BinaryFirst(array, array[A.start], B, comp);
-								
-								// rotate A into place
-								int amount = split - A.end;
-								Rotate(array, -amount, new Range(A.start, split), true);
-								
-								// calculate the new A and B ranges
-								B.start = split;
-								A.set(BinaryLast(array, array[A.start + amount], A, comp), B.start);
-							}
-							
-							continue;
-						}
-						
-						// move the unique values to the start of A if needed
-						int length = bufferA.length();
-						count = 0;
-						for (int index = bufferA.start; count < length; index--) {
-							if (index == A.start || comp.compare(array[index - 1], array[index]) != 0) {
-								Rotate(array, -count, new Range(index + 1, bufferA.start + 1), true);
-								bufferA.start = index + count; count++;
-							}
-						}
-						bufferA.set(A.start, A.start + length);
-						
-						// move the unique values to the end of B if needed
-						length = bufferB.length();
-						count = 0;
-						for (int index = bufferB.start; count < length; index++) {
-							if (index == B.end - 1 || comp.compare(array[index], array[index + 1]) != 0) {
-								Rotate(array, count, new Range(bufferB.start, index), true);
-								bufferB.start = index - count; count++;
-							}
-						}
-						bufferB.set(B.end - length, B.end);
-						
-						// reuse these buffers next time!
-						level1.set(buffer1.start, buffer1.end);
-						level2.set(buffer2.start, buffer2.end);
-						levelA.set(bufferA.start, bufferA.end);
-						levelB.set(bufferB.start, bufferB.end);
-					}
-					
-					// break the remainder of A into blocks. firstA is the uneven-sized first A block
-					blockA.set(bufferA.end, A.end);
-					firstA.set(bufferA.end, bufferA.end + blockA.length() % block_size);
-					
-					// swap the second value of each A block with the value in buffer1
-					int index = 0;
-					for (int indexA = firstA.end + 1; indexA < blockA.end; indexA += block_size) {
-						T swap = array[buffer1.start + index];
-						array[buffer1.start + index] = array[indexA];
-						array[indexA] = swap;
-						index++;
-					}
-					
-					// start rolling the A blocks through the B blocks!
-					// whenever we leave an A block behind, we'll need to merge the previous A block with any B blocks that follow it, so track that information as well
-					lastA.set(firstA.start, firstA.end);
-					lastB.set(0, 0);
-					blockB.set(B.start, B.start + Math.min(block_size, B.length() - bufferB.length()));
-					blockA.start += firstA.length();
-					
-					int minA = blockA.start;
-					int indexA = 0;
-					T min_value = array[minA];
-					
-					if (lastA.length() <= cache_size)
-						java.lang.System.arraycopy(array, lastA.start, cache, 0, lastA.length());
-					else
-						BlockSwap(array, lastA.start, buffer2.start, lastA.length());
+				// like before, the last value is guaranteed to be the first unique value we encounter, so we can start searching at the next index
+				buffer2.start = B.end - 2;
+				FindUniqueBackward(array, buffer2, B.start, 1, buffer_size, comp);
+				
+				if (buffer2.length() == buffer_size) {
+					bufferB.set(buffer2.start, buffer2.start + buffer_size);
+					buffer2.set(B.end - buffer_size, B.end);
 					
-					while (true) {
-						// if there's a previous B block and the first value of the minimum A block is <= the last value of the previous B block
-						if ((lastB.length() > 0 && comp.compare(array[lastB.end - 1], min_value) >= 0) || blockB.length() == 0) {
-							// figure out where to split the previous B block, and rotate it at the split
-							int B_split = BinaryFirst(array, min_value, lastB, comp);
-							int B_remaining = lastB.end - B_split;
-							
-							// swap the minimum A block to the beginning of the rolling A blocks
-							BlockSwap(array, blockA.start, minA, block_size);
-							
-							// we need to swap the second item of the previous A block back with its original value, which is stored in buffer1
-							// since the firstA block did not have its value swapped out, we need to make sure the previous A block is not unevenly sized
-							T swap = array[blockA.start + 1];
-							array[blockA.start + 1] = array[buffer1.start + indexA];
-							array[buffer1.start + indexA] = swap;
-							indexA++;
-							
-							// locally merge the previous A block with the B values that follow it, using the buffer as swap space
-							Merge(array, buffer2, lastA, new Range(lastA.end, B_split), comp);
-							
-							// copy the previous A block into the cache or buffer2, since that's where we need it to be when we go to merge it anyway
-							if (block_size <= cache_size)
-								java.lang.System.arraycopy(array, blockA.start, cache, 0, block_size);
-							else
-								BlockSwap(array, blockA.start, buffer2.start, block_size);
-							
-							// this is equivalent to rotating, but faster
-							// the area normally taken up by the A block is either the contents of buffer2, or data we don't need anymore since we memcopied it
-							// either way, we don't need to retain the order of those items, so instead of rotating we can just block swap B to where it belongs
-							BlockSwap(array, B_split, blockA.start + block_size - B_remaining, B_remaining);
-							
-							// now we need to update the ranges and stuff
-							lastA.set(blockA.start - B_remaining, blockA.start - B_remaining + block_size);
-							lastB.set(lastA.end, lastA.end + B_remaining);
-							
-							blockA.start += block_size;
-							if (blockA.length() == 0)
-								break;
-							
-							// search the second value of the remaining A blocks to find the new minimum A block (that's why we wrote unique values to them!)
-							minA = blockA.start + 1;
-							for (int findA = minA + block_size; findA < blockA.end; findA += block_size)
-								if (comp.compare(array[findA], array[minA]) < 0) minA = findA;
-							minA = minA - 1; // decrement once to get back to the start of that A block
-							min_value = array[minA];
-							
-						} else if (blockB.length() < block_size) {
-							// move the last B block, which is unevenly sized, to before the remaining A blocks, by using a rotation
-							// (using the cache is disabled since we have the contents of the previous A block in it!)
-							Rotate(array, -blockB.length(), new Range(blockA.start, blockB.end), false);
-							lastB.set(blockA.start, blockA.start + blockB.length());
-							blockA.start += blockB.length();
-							blockA.end += blockB.length();
-							minA += blockB.length();
-							blockB.end = blockB.start;
-						} else {
-							// roll the leftmost A block to the end by swapping it with the next B block
-							BlockSwap(array, blockA.start, blockB.start, block_size);
-							lastB.set(blockA.start, blockA.start + block_size);
-							if (minA == blockA.start)
-								minA = blockA.end;
-							
-							blockA.start += block_size;
-							blockA.end += block_size;
-							blockB.start += block_size;
-							blockB.end += block_size;
-							
-							if (blockB.end > bufferB.start)
-								blockB.end = bufferB.start;
-						}
-					}
+				} else buffer1.end = buffer1.start; // failure
+			} else {
+				// we were unable to find a single buffer in A, so we'll need to find two buffers in B
+				buffer1.start = B.end - 2;
+				FindUniqueBackward(array, buffer1, B.start, 1, buffer_size, comp);
+				
+				buffer2.start = buffer1.start - 1;
+				FindUniqueBackward(array, buffer2, B.start, 0, buffer_size, comp);
+				
+				if (buffer2.length() == buffer_size) {
+					bufferA.set(A.start, A.start);
+					bufferB.set(buffer2.start, buffer2.start + buffer_size * 2);
+					buffer1.set(B.end - buffer_size, B.end);
+					buffer2.set(buffer1.start - buffer_size, buffer1.start);
 					
-					// merge the last A block with the remaining B blocks
-					Merge(array, buffer2, lastA, new Range(lastA.end, B.end - bufferB.length()), comp);
+				} else buffer1.end = buffer1.start; // failure
+			}
+		}
+		
+		if (buffer1.length() < buffer_size)
+			return false;
+		
+		// move the unique values to the start of A and the end of B if needed
+		job.index = bufferA.start;
+		job.pull_count = job.pull_run = 0;
+		job.pull_length = bufferA.length();
+		job.phase = WikiSortJob.PULL_A;
+		return true;
+	}
+	
+	// swap the second value of each A block with the values in buffer1, so each block is tagged with a unique value
+	void TagBlocks(T array[], int tags, int first, int end, int block_size) {
+		for (int indexA = first + 1; indexA < end; indexA += block_size) {
+			T swap = array[tags];
+			array[tags] = array[indexA];
+			array[indexA] = swap;
+			tags++;
+		}
+	}
+	
+	// search the second value of the remaining A blocks to find the minimum A block (that's why we wrote unique values to them!)
+	int FindMinBlock(T array[], Range blockA, int block_size, Comparator<T> comp) {
+		int minA = blockA.start + 1;
+		for (int findA = minA + block_size; findA < blockA.end; findA += block_size)
+			if (comp.compare(array[findA], array[minA]) < 0) minA = findA;
+		return minA - 1; // decrement once to get back to the start of that A block
+	}
+	
+	// break the remainder of A into blocks, tag them, and get ready to roll them through B with RollBlock
+	void RollBlocksStart(WikiSortJob<T> job) {
+		T array[] = job.array;
+		int block_size = job.block_size;
+		Range bufferA = job.bufferA, bufferB = job.bufferB;
+		Range buffer1 = job.buffer1, buffer2 = job.buffer2;
+		Range blockA = job.blockA, blockB = job.blockB;
+		Range lastA = job.lastA, lastB = job.lastB;
+		Range firstA = job.firstA;
+		Range A = job.A, B = job.B;
+		
+		// break the remainder of A into blocks. firstA is the uneven-sized first A block
+		blockA.set(bufferA.end, A.end);
+		firstA.set(bufferA.end, bufferA.end + blockA.length() % block_size);
+		
+		TagBlocks(array, buffer1.start, firstA.end, blockA.end, block_size);
+		
+		// start rolling the A blocks through the B blocks!
+		// whenever we leave an A block behind, we'll need to merge the previous A block with any B blocks that follow it, so track that information as well
+		lastA.set(firstA.start, firstA.end);
+		lastB.set(0, 0);
+		blockB.set(B.start, B.start + Math.min(block_size, B.length() - bufferB.length()));
+		blockA.start += firstA.length();
+		
+		job.minA = blockA.start;
+		job.indexA = 0;
+		job.min_value = array[job.minA];
+		
+		if (lastA.length() <= cache_size)
+			java.lang.System.arraycopy(array, lastA.start, cache, 0, lastA.length());
+		else
+			BlockSwap(array, lastA.start, buffer2.start, lastA.length());
+		
+		job.work -= blockA.length()/block_size + lastA.length();
+		job.phase = WikiSortJob.ROLL;
+	}
+	
+	// roll the A blocks through B one block at a time, merging each A block with the B values that follow it once it's left behind
+	// the state of the roll is kept in the job between calls, so the job can stop after any block or partway through a merge.
+	// when it's done, the job goes back to IDLE
+	// (the previous A block stays in the cache between calls, which is why each resumable job has a sorter of its own)
+	void RollBlock(WikiSortJob<T> job) {
+		T array[] = job.array;
+		Comparator<T> comp = job.comp;
+		int block_size = job.block_size;
+		Range bufferB = job.bufferB;
+		Range buffer1 = job.buffer1, buffer2 = job.buffer2;
+		Range blockA = job.blockA, blockB = job.blockB;
+		Range lastA = job.lastA, lastB = job.lastB;
+		Range B = job.B;
+		
+		if (job.merging) {
+			// continue merging the previous A block with the B values that follow it
+			if (!MergeStep(job)) return;
+			
+			// if that was the last A block, we're done
+			if (blockA.length() == 0) {
+				job.phase = WikiSortJob.IDLE;
+				return;
+			}
+			
+			// the merge covered the previous B block up to where it needed to be split
+			int B_split = job.merge_B.end;
+			int B_remaining = lastB.end - B_split;
+			
+			// copy the previous A block into the cache or buffer2, since that's where we need it to be when we go to merge it anyway
+			if (block_size <= cache_size)
+				java.lang.System.arraycopy(array, blockA.start, cache, 0, block_size);
+			else
+				BlockSwap(array, blockA.start, buffer2.start, block_size);
+			
+			// this is equivalent to rotating, but faster
+			// the area normally taken up by the A block is either the contents of buffer2, or data we don't need anymore since we memcopied it
+			// either way, we don't need to retain the order of those items, so instead of rotating we can just block swap B to where it belongs
+			BlockSwap(array, B_split, blockA.start + block_size - B_remaining, B_remaining);
+			job.work -= block_size + B_remaining;
+			
+			// now we need to update the ranges and stuff
+			lastA.set(blockA.start - B_remaining, blockA.start - B_remaining + block_size);
+			lastB.set(lastA.end, lastA.end + B_remaining);
+			
+			blockA.start += block_size;
+			if (blockA.length() == 0) {
+				// merge the last A block with the remaining B blocks
+				StartMerge(job, lastA, new Range(lastA.end, B.end - bufferB.length()));
+				return;
+			}
+			
+			job.minA = FindMinBlock(array, blockA, block_size, comp);
+			job.min_value = array[job.minA];
+			job.work -= blockA.length()/block_size;
+			
+		} else if ((lastB.length() > 0 && comp.compare(array[lastB.end - 1], job.min_value) >= 0) || blockB.length() == 0) {
+			// if there's a previous B block and the first value of the minimum A block is <= the last value of the previous B block,
+			// figure out where to split the previous B block, and rotate it at the split
+			int B_split = BinaryFirst(array, job.min_value, lastB, comp);
+			
+			// swap the minimum A block to the beginning of the rolling A blocks
+			BlockSwap(array, blockA.start, job.minA, block_size);
+			
+			// we need to swap the second item of the previous A block back with its original value, which is stored in buffer1
+			// since the firstA block did not have its value swapped out, we need to make sure the previous A block is not unevenly sized
+			T swap = array[blockA.start + 1];
+			array[blockA.start + 1] = array[buffer1.start + job.indexA];
+			array[buffer1.start + job.indexA] = swap;
+			job.indexA++;
+			job.work -= block_size;
+			
+			// locally merge the previous A block with the B values that follow it, using the buffer as swap space
+			StartMerge(job, lastA, new Range(lastA.end, B_split));
+			
+		} else if (blockB.length() < block_size) {
+			// move the last B block, which is unevenly sized, to before the remaining A blocks, by using a rotation
+			// (using the cache is disabled since we have the contents of the previous A block in it!)
+			RotateInSteps(job, -blockB.length(), new Range(blockA.start, blockB.end), false);
+			lastB.set(blockA.start, blockA.start + blockB.length());
+			blockA.start += blockB.length();
+			blockA.end += blockB.length();
+			job.minA += blockB.length();
+			blockB.end = blockB.start;
+		} else {
+			// roll the leftmost A block to the end by swapping it with the next B block
+			BlockSwap(array, blockA.start, blockB.start, block_size);
+			lastB.set(blockA.start, blockA.start + block_size);
+			if (job.minA == blockA.start)
+				job.minA = blockA.end;
+			
+			blockA.start += block_size;
+			blockA.end += block_size;
+			blockB.start += block_size;
+			blockB.end += block_size;
+			
+			if (blockB.end > bufferB.start)
+				blockB.end = bufferB.start;
+			job.work -= block_size;
+		}
+	}
+	
+	// start merging the two neighboring ranges [start, mid) and [mid, end) within the current level of the sort
+	// merges that fit into the cache are finished right away, while the rest are left in job.phase for the job to continue
+	// the internal buffers pulled out for this level are stored in the job, so they can be reused by the next call
+	void MergePair(WikiSortJob<T> job, int start, int mid, int end) {
+		T array[] = job.array;
+		Comparator<T> comp = job.comp;
+		job.work -= 2;
+		
+		if (comp.compare(array[end - 1], array[start]) < 0) {
+			// the two ranges are in reverse order, so a simple rotation should fix it
+			RotateInSteps(job, mid - start, new Range(start, end), true);
+			
+		} else if (comp.compare(array[mid], array[mid - 1]) < 0) {
+			// these two ranges weren't already in order, so we'll need to merge them!
+			Range A = job.A, B = job.B;
+			A.set(start, mid);
+			B.set(mid, end);
+			
+			// if A fits into the cache, a standard merge is all we need
+			if (A.length() <= cache_size) {
+				java.lang.System.arraycopy(array, A.start, cache, 0, A.length());
+				MergeExternal(array, A, B, comp);
+				job.work -= end - start;
+				return;
+			}
+			
+			if (job.level1.length() > 0) {
+				// reuse the buffers we found in a previous iteration
+				job.bufferA.set(A.start, A.start);
+				job.bufferB.set(B.end, B.end);
+				job.buffer1.set(job.level1.start, job.level1.end);
+				job.buffer2.set(job.level2.start, job.level2.end);
+				RollBlocksStart(job);
+				
+			} else {
+				job.work -= job.buffer_size * 2;
+				if (!ExtractBuffers(job)) {
+					// we failed to fill both buffers with unique values, which implies we're merging two subarrays with a lot of the same values repeated
+					// we can use this knowledge to write a merge operation that is optimized for arrays of repeating values
+					job.in_place_amount = -1;
+					job.phase = WikiSortJob.MERGE_IN_PLACE;
+				}
+				
+				// otherwise the job pulls the buffers out, then starts rolling the A blocks through B
+			}
+		}
+	}
+	
+	// insertion sort the jumbled up buffer, one value at a time since the buffer can hold thousands of values
+	void SortBuffer(WikiSortJob<T> job) {
+		T array[] = job.array;
+		Comparator<T> comp = job.comp;
+		Range buffer = job.level2;
+		
+		for (; job.index < buffer.end && job.work > 0; job.index++) {
+			T temp = array[job.index]; int j;
+			for (j = job.index; j > buffer.start && comp.compare(temp, array[j - 1]) < 0; j--)
+				array[j] = array[j - 1];
+			array[j] = temp;
+			job.work -= job.index - j + 1;
+		}
+		
+		if (job.index >= buffer.end) job.phase = WikiSortJob.REDISTRIBUTE_A;
+	}
+	
+	// put bufferA back into the array, using the opposite process used for creating the buffer
+	// if the step runs out of work partway through, the buffer is moved up past the values it has already been compared to,
+	// so the next call can pick up from the end of the buffer
+	void RedistributeForward(WikiSortJob<T> job) {
+		T array[] = job.array;
+		Comparator<T> comp = job.comp;
+		Range buffer = job.levelA;
+		int end = job.levelB.start;
+		
+		int index = buffer.end;
+		while (buffer.length() > 0 && job.work > 0) {
+			if (index == end || comp.compare(array[index], array[buffer.start]) >= 0) {
+				int amount = index - buffer.end;
+				Rotate(array, -amount, new Range(buffer.start, index), true);
+				buffer.start += (amount + 1);
+				buffer.end += amount;
+				job.work -= buffer.length() + 1;
+			} else {
+				index++;
+				job.work--;
+			}
+		}
+		
+		if (buffer.length() == 0) {
+			job.phase = WikiSortJob.REDISTRIBUTE_B;
+		} else if (index > buffer.end) {
+			int amount = index - buffer.end;
+			Rotate(array, -amount, new Range(buffer.start, index), true);
+			buffer.start += amount;
+			buffer.end += amount;
+		}
+	}
+	
+	// put bufferB back into the array, using the opposite process used for creating the buffer
+	void RedistributeBackward(WikiSortJob<T> job) {
+		T array[] = job.array;
+		Comparator<T> comp = job.comp;
+		Range buffer = job.levelB;
+		int start = job.level_start;
+		
+		int index = buffer.start;
+		while (buffer.length() > 0 && job.work > 0) {
+			if (index == start || comp.compare(array[buffer.end - 1], array[index - 1]) >= 0) {
+				int amount = buffer.start - index;
+				Rotate(array, amount, new Range(index, buffer.end), true);
+				buffer.start -= amount;
+				buffer.end -= (amount + 1);
+				job.work -= buffer.length() + 1;
+			} else {
+				index--;
+				job.work--;
+			}
+		}
+		
+		if (buffer.length() == 0) {
+			// the level is finished, so there are no buffers to reuse anymore
+			job.level1.set(0, 0);
+			job.phase = WikiSortJob.IDLE;
+		} else if (index < buffer.start) {
+			int amount = buffer.start - index;
+			Rotate(array, amount, new Range(index, buffer.end), true);
+			buffer.start -= amount;
+			buffer.end -= amount;
+		}
+	}
+	
+	// when we're finished with a level, start putting the internal buffers that were pulled out for it back where they belong
+	// when this step is finished we should have b1 b2 left over, where one of the buffers is all jumbled up
+	// so the jumbled up buffer is insertion sorted first, then both buffers are redistributed back into the array
+	void Redistribute(WikiSortJob<T> job) {
+		if (job.level1.length() > 0) {
+			job.index = job.level2.start + 1;
+			job.level_start = job.levelA.start;
+			job.phase = WikiSortJob.SORT_BUFFER;
+		}
+	}
+	
+	// start a sort that can be run a little at a time, by calling step() on the job that is returned
+	// the job gets a sorter of its own, since it can stop between two A blocks with the previous one still in the sorter's cache
+	WikiSortJob<T> Start(T array[], Range range, Comparator<T> comp) {
+		return new WikiSortJob<T>(new WikiSorter<T>(), array, range, comp);
+	}
+	
+	WikiSortJob<T> Start(T array[], Comparator<T> comp) {
+		return Start(array, new Range(0, array.length), comp);
+	}
+	
+	// bottom-up merge sort combined with an in-place merge algorithm for O(1) memory use
+	void Sort(T array[], Range range, Comparator<T> comp) {
+		new WikiSortJob<T>(this, array, range, comp).finish();
+	}
+	
+	void Sort(T array[], Comparator<T> comp) {
+		Sort(array, new Range(0, array.length), comp);
+	}
+	
+	// move one value from each run of equal values in a sorted range to the start of that range, keeping them in order
+	// if keep_last is true the last value of each run is kept instead of the first, otherwise it's the first one
+	// the duplicates are swapped to the end of the range rather than thrown away, so no extra memory is needed
+	// returns the number of unique values
+	int Distinct(T array[], Range range, Comparator<T> comp, boolean keep_last) {
+		if (range.length() == 0) return 0;
+		
+		// everything at or after 'index' is still untouched, since we only ever swap with an earlier position
+		int insert = range.start;
+		for (int index = range.start; index < range.end; index++) {
+			boolean unique;
+			if (keep_last)
+				unique = (index == range.end - 1 || comp.compare(array[index], array[index + 1]) != 0);
+			else
+				unique = (insert == range.start || comp.compare(array[insert - 1], array[index]) != 0);
+			
+			if (unique) {
+				if (insert != index) {
+					T swap = array[insert];
+					array[insert] = array[index];
+					array[index] = swap;
+				}
+				insert++;
+			}
+		}
+		
+		return insert - range.start;
+	}
+	
+	// stable sort followed by Distinct, without allocating a second array for the unique values
+	int SortDistinct(T array[], Range range, Comparator<T> comp, boolean keep_last) {
+		Sort(array, range, comp);
+		return Distinct(array, range, comp, keep_last);
+	}
+	
+	int SortDistinct(T array[], Comparator<T> comp, boolean keep_last) {
+		return SortDistinct(array, new Range(0, array.length), comp, keep_last);
+	}
+	
+	// merge two neighboring sorted ranges in place, using the same block merge the sort uses for each level
+	// (A's values come before any equal values from B)
+	void MergeRanges(T array[], Range A, Range B, Comparator<T> comp) {
+		if (A.length() == 0 || B.length() == 0) return;
+		
+		WikiSortJob<T> job = new WikiSortJob<T>(this, array, new Range(A.start, B.end), comp);
+		job.block_size = (int)Math.sqrt(A.length());
+		job.buffer_size = A.length()/job.block_size + 1;
+		job.work = Integer.MAX_VALUE;
+		MergePair(job, A.start, A.end, B.end);
+		
+		if (job.phase == WikiSortJob.MERGE_IN_PLACE && B.length() < A.length()) {
+			// there weren't enough unique values for the buffers, and the in-place merge moves what's left of A once per run of values,
+			// so when B is smaller, rotate the runs of A backward past B instead, which moves each value of A once and B once per run
+			job.phase = WikiSortJob.IDLE;
+			MergeTail(array, new Range(A.start, A.end), new Range(B.start, B.end), comp);
+			return;
+		}
+		
+		job.complete();
+		Redistribute(job);
+		job.complete();
+	}
+	
+	// the array was sorted, but the values within the 'dirty' ranges have been changed since then
+	// pull the dirty values out to the end of the array (keeping everything else in order), sort them, then merge them back in
+	// the dirty values always end up after any clean values that are equal to them, and the ranges are allowed to overlap
+	// 'dirty' is sorted by the start of each range as part of this
+	void Resort(T array[], Range dirty[], Comparator<T> comp) {
+		int size = array.length;
+		
+		Arrays.sort(dirty, new Comparator<Range>() {
+			public int compare(Range a, Range b) {
+				return Integer.compare(a.start, b.start);
+			}
+		});
+		
+		// combine the ranges into disjoint spans, where each span is the clean values since the last span followed by the dirty values
+		// ends[] is where each span ends, and counts[] is how many dirty values are at the end of it
+		int[] ends = new int[dirty.length], counts = new int[dirty.length];
+		int spans = 0, last = 0;
+		for (int index = 0; index < dirty.length; index++) {
+			int start = Math.max(dirty[index].start, last), end = dirty[index].end;
+			if (start >= end) continue;
+			
+			if (spans > 0 && start == last) {
+				ends[spans - 1] = end;
+				counts[spans - 1] += end - start;
+			} else {
+				ends[spans] = end;
+				counts[spans] = end - start;
+				spans++;
+			}
+			last = end;
+		}
+		if (spans == 0) return;
+		
+		// collect the dirty values into one block by combining neighboring spans, doubling the width each time
+		// [clean][dirty][clean][dirty] becomes [clean][clean][dirty][dirty] with one rotation,
+		// so each pass moves each value at most once and it takes O(n log spans) moves in total
+		for (int width = 1; width < spans; width *= 2) {
+			for (int index = 0; index + width < spans; index += width * 2) {
+				int next = index + width, end = ends[Math.min(index + width * 2, spans) - 1];
+				int clean_start = ends[next - 1], clean_end = end - counts[next];
+				if (clean_end > clean_start)
+					Rotate(array, counts[index], new Range(clean_start - counts[index], clean_end), true);
+				counts[index] += counts[next];
+			}
+		}
+		
+		// then move the block to the end of the array and sort it
+		int count = counts[0], block_end = ends[spans - 1];
+		if (block_end < size)
+			Rotate(array, count, new Range(block_end - count, size), true);
+		Sort(array, new Range(size - count, size), comp);
+		
+		// merging the block back in by rotating A runs past it can move k^2 items, so past a certain point use the block merge instead,
+		// which moves O(n) items - both of them put A's values before any equal values from B
+		Range A = new Range(0, size - count), B = new Range(size - count, size);
+		if ((long)count * count <= size)
+			MergeTail(array, A, B, comp);
+		else
+			MergeRanges(array, A, B, comp);
+	}
+	
+	// same as above, but for individual indices instead of ranges
+	void Resort(T array[], int dirty[], Comparator<T> comp) {
+		Range[] ranges = new Range[dirty.length];
+		for (int index = 0; index < dirty.length; index++)
+			ranges[index] = new Range(dirty[index], dirty[index] + 1);
+		Resort(array, ranges, comp);
+	}
+	
+	// find the first value in a partitioned range that doesn't match the predicate
+	int PartitionPoint(T array[], Range range, Predicate<T> pred) {
+		int start = range.start, end = range.end;
+		while (start < end) {
+			int mid = start + (end - start)/2;
+			if (pred.test(array[mid]))
+				start = mid + 1;
+			else
+				end = mid;
+		}
+		return start;
+	}
+	
+	// move the values that match the predicate to the start of the range, and the rest after them, keeping both in order
+	// this works like a bottom-up merge sort with Rotate as the merge: chunks that fit into the cache are partitioned first,
+	// then each pair of neighboring chunks [A true][A false][B true][B false] is combined by rotating the middle two,
+	// so the predicate is only called once per value (plus a binary search per chunk), and no extra memory is needed
+	// returns the number of values that matched
+	int Partition(T array[], Range range, Predicate<T> pred) {
+		int size = range.length();
+		if (size == 0) return 0;
+		
+		// partition each chunk that fits into the cache by moving the matching values down and copying the rest out
+		int chunk_size = Math.max(cache_size, 1);
+		if (cache_size > 0) {
+			for (int start = range.start; start < range.end; start += chunk_size) {
+				int end = Math.min(start + chunk_size, range.end);
+				int insert = start, count = 0;
+				for (int index = start; index < end; index++) {
+					if (pred.test(array[index]))
+						array[insert++] = array[index];
+					else
+						cache[count++] = array[index];
+				}
+				java.lang.System.arraycopy(cache, 0, array, insert, count);
+			}
+		}
+		
+		// then combine pairs of partitioned chunks, doubling the chunk size each time
+		for (; chunk_size < size; chunk_size += chunk_size) {
+			for (int start = range.start; start + chunk_size < range.end; start += chunk_size + chunk_size) {
+				int mid = start + chunk_size, end = Math.min(mid + chunk_size, range.end);
+				int splitA = PartitionPoint(array, new Range(start, mid), pred);
+				int splitB = PartitionPoint(array, new Range(mid, end), pred);
+				Rotate(array, mid - splitA, new Range(splitA, splitB), true);
+			}
+		}
+		
+		return PartitionPoint(array, range, pred) - range.start;
+	}
+	
+	int Partition(T array[], Predicate<T> pred) {
+		return Partition(array, new Range(0, array.length), pred);
+	}
+	
+	// stable sort by a small integer key in [0, k), without calling a comparator
+	// this is Partition applied to one bit of the key at a time, from the highest bit down, like an MSD radix sort,
+	// so it takes log2(k) passes and stops early on groups that only have one key in them
+	// returns the offsets of each group: the values with key 'i' end up in [offsets[i], offsets[i + 1])
+	// (if a key is outside of [0, k), an exception is thrown before anything in the array is moved)
+	int[] GroupBy(T array[], Range range, ToIntFunction<T> key, int k) {
+		int offsets[] = new int[k + 1];
+		for (int index = range.start; index < range.end; index++) {
+			int value = key.applyAsInt(array[index]);
+			if (value < 0 || value >= k) throw new IllegalArgumentException("key " + value + " at index " + index + " is outside of [0, " + k + ")");
+			offsets[value + 1]++;
+		}
+		offsets[0] = range.start;
+		for (int index = 1; index <= k; index++)
+			offsets[index] += offsets[index - 1];
+		
+		int width = 1;
+		while (width < k) width += width;
+		
+		for (; width > 1; width /= 2) {
+			for (int low = 0; low < k; low += width) {
+				int high = Math.min(low + width, k);
+				final int mid = low + width/2;
+				if (mid >= high) continue;
+				
+				// skip the groups that are already done: the ones where all of the values are on one side of 'mid'
+				if (offsets[low] == offsets[mid] || offsets[mid] == offsets[high]) continue;
+				
+				Partition(array, new Range(offsets[low], offsets[high]), value -> key.applyAsInt(value) < mid);
+			}
+		}
+		
+		return offsets;
+	}
+	
+	int[] GroupBy(T array[], ToIntFunction<T> key, int k) {
+		return GroupBy(array, new Range(0, array.length), key, k);
+	}
+}
+
+// the state of a sort that can be spread out across multiple calls, such as once per tick of an event loop
+// the job stops at checkpoints: after each chunk of the insertion sort pass, after each A or B block is rolled during a merge,
+// and every so often while pulling out the internal buffers, merging an A block with the B values after it, sorting and
+// redistributing the buffers, or merging runs of repeated values. rotations too long for the current step are done as block swaps
+// over as many steps as they need, so a step never goes more than O(sqrt n) comparisons or moves past the work it was given
+class WikiSortJob<T> {
+	// what the job is in the middle of, between pairs of A and B ranges
+	static final int IDLE = 0, PULL_A = 1, PULL_B = 2, ROLL = 3, MERGE_IN_PLACE = 4, SORT_BUFFER = 5, REDISTRIBUTE_A = 6, REDISTRIBUTE_B = 7;
+	
+	WikiSorter<T> sorter;
+	T[] array;
+	Comparator<T> comp;
+	Range range;
+	int size;
+	
+	// calculate how to scale the index value to the range within the array
+	// (this is essentially fixed-point math, where we manually check for and handle overflow)
+	int power_of_two, fractional_base, fractional_step, decimal_step;
+	
+	// the current level (0 for the insertion sort pass) and how far along we are within it
+	int merge_size, decimal, fractional;
+	int block_size, buffer_size;
+	boolean finished;
+	
+	// how much work is left in the current step, and the merge that's in progress
+	int work, phase;
+	int minA, indexA, in_place_amount, index, level_start, pull_count, pull_length, pull_run;
+	T min_value;
+	
+	// the merge of an A block with the B values that follow it, which RollBlock can stop partway through
+	boolean merging;
+	Range merge_A = new Range(), merge_B = new Range();
+	int merge_A_count, merge_B_count, merge_insert;
+	
+	// a rotation that didn't fit into the step that started it, which is continued before anything else
+	Range rotate = new Range();
+	int rotate_split, rotate_swapped;
+	
+	// we need to keep track of a lot of ranges during this sort!
+	Range bufferA = new Range(), bufferB = new Range();
+	Range buffer1 = new Range(), buffer2 = new Range();
+	Range blockA = new Range(), blockB = new Range();
+	Range lastA = new Range(), lastB = new Range();
+	Range firstA = new Range();
+	Range level1 = new Range(), level2 = new Range();
+	Range levelA = new Range(), levelB = new Range();
+	Range A = new Range(), B = new Range();
+	
+	public WikiSortJob(WikiSorter<T> sorter1, T[] array1, Range range1, Comparator<T> comp1) {
+		sorter = sorter1;
+		array = array1;
+		comp = comp1;
+		range = new Range(range1.start, range1.end);
+		size = range.length();
+		
+		if (size > 32) {
+			power_of_two = WikiSorter.FloorPowerOfTwo(size);
+			fractional_base = power_of_two/16;
+			fractional_step = size % fractional_base;
+			decimal_step = size/fractional_base;
+		}
+	}
+	
+	// move the decimal and fractional position forward to the start of the next range at this level
+	int next() {
+		decimal += decimal_step;
+		fractional += fractional_step;
+		if (fractional >= fractional_base) {
+			fractional -= fractional_base;
+			decimal++;
+		}
+		return decimal;
+	}
+	
+	// move on to the next level, which can be 32-63, 64-127, 128-255, etc.
+	void nextLevel() {
+		if (merge_size > 0) {
+			decimal_step += decimal_step;
+			fractional_step += fractional_step;
+			if (fractional_step >= fractional_base) {
+				fractional_step -= fractional_base;
+				decimal_step += 1;
+			}
+			merge_size += merge_size;
+		} else merge_size = 16;
+		
+		if (merge_size >= power_of_two) {
+			finished = true;
+			return;
+		}
+		
+		block_size = (int)Math.sqrt(decimal_step);
+		buffer_size = decimal_step/block_size + 1;
+		
+		// as an optimization, we really only need to pull out an internal buffer once for each level of merges
+		// after that we can reuse the same buffer over and over, then redistribute it when we're finished with this level
+		level1.set(0, 0);
+		decimal = fractional = 0;
+	}
+	
+	// true while a merge or rotation is partway done
+	boolean busy() {
+		return phase != IDLE || rotate.length() > 0;
+	}
+	
+	// continue the merge or rotation that's in progress, up to the next checkpoint
+	void resume() {
+		if (rotate.length() > 0) sorter.ContinueRotate(this);
+		else if (phase == PULL_A) sorter.PullUniqueToStart(this);
+		else if (phase == PULL_B) sorter.PullUniqueToEnd(this);
+		else if (phase == ROLL) sorter.RollBlock(this);
+		else if (phase == MERGE_IN_PLACE) sorter.MergeInPlace(this);
+		else if (phase == SORT_BUFFER) sorter.SortBuffer(this);
+		else if (phase == REDISTRIBUTE_A) sorter.RedistributeForward(this);
+		else if (phase == REDISTRIBUTE_B) sorter.RedistributeBackward(this);
+	}
+	
+	// finish the merge or rotation that's in progress, without moving on to the next one
+	// the budget is refilled before each checkpoint, since every kernel stops once it runs out
+	// and a single merge (like the in-place fallback) can take more work than fits in an int
+	void complete(int work1) {
+		while (busy()) {
+			work = work1;
+			resume();
+		}
+	}
+	
+	void complete() {
+		complete(Integer.MAX_VALUE);
+	}
+	
+	// do about 'work' items worth of sorting (item moves and comparisons), stopping at the first checkpoint after that
+	// returns true if there is still more work left to do
+	public boolean step(int work1) {
+		work = work1;
+		while (!finished && work > 0) {
+			if (busy()) {
+				resume();
+				
+			} else if (size <= 32) {
+				// if there are 32 or fewer items, just insertion sort the entire range
+				sorter.InsertionSort(array, range, comp);
+				finished = true;
+				
+			} else if (merge_size == 0) {
+				// first insertion sort everything the lowest level, which is 16-31 items at a time
+				int start = decimal, end = next();
+				// (reversed input takes about (end - start)^2/2 comparisons, so that's what it counts as)
+				sorter.InsertionSort(array, new Range(range.start + start, range.start + end), comp);
+				work -= (end - start) * (end - start)/2;
+				if (decimal >= size) nextLevel();
+				
+			} else if (decimal < size) {
+				// then merge sort the higher levels, one pair of A and B ranges at a time
+				int start = decimal, mid = next(), end = next();
+				sorter.MergePair(this, range.start + start, range.start + mid, range.start + end);
+				
+			} else if (level1.length() > 0) {
+				// put the internal buffers back where they belong (this clears level1 once it's done)
+				sorter.Redistribute(this);
+				
+			} else nextLevel();
+		}
+		return !finished;
+	}
+	
+	// run the rest of the sort to completion
+	public void finish() {
+		while (step(Integer.MAX_VALUE));
+	}
+	
+	// stop the sort where it is. the range will still contain all of its original items, but not necessarily in order
+	// (a merge that's partway through is finished first, since the previous A block might only be in the cache)
+	public void cancel() {
+		complete();
+		finished = true;
+	}
+	
+	public boolean isDone() {
+		return finished;
+	}
+}
+
+// WikiSort for values that each have a long key stored alongside them in a parallel array
+// the keys are moved along with the values, and most comparisons can be settled by the keys alone,
+// so the values (and the comparator) are only looked at when two keys are equal
+// 'tie' can be null if equal keys should be treated as equal values, and 'values' can be null if there are only keys
+// the block merge here (buffer extraction, rolling the A blocks, redistributing the buffers) mirrors the one in WikiSorter,
+// just on parallel key and value arrays, so any change to one of them needs to be made to the other as well
+class KeySorter<T> {
+	// see WikiSorter for how the cache is used
+	private static int cache_size = 512;
+	private long[] cache_keys;
+	private T[] cache_values;
+	
+	private long[] keys;
+	private T[] values;
+	private Comparator<T> tie;
+	
+	// the internal buffers pulled out for the current level, and the other ranges used while merging
+	private Range bufferA = new Range(), bufferB = new Range();
+	private Range buffer1 = new Range(), buffer2 = new Range();
+	private Range blockA = new Range(), blockB = new Range();
+	private Range lastA = new Range(), lastB = new Range();
+	private Range firstA = new Range();
+	private Range level1 = new Range(), level2 = new Range();
+	private Range levelA = new Range(), levelB = new Range();
+	private Range A = new Range(), B = new Range();
+	private int block_size, buffer_size;
+	
+	public KeySorter() {
+		cache_keys = new long[cache_size];
+		@SuppressWarnings("unchecked")
+		T[] cache1 = (T[])new Object[cache_size];
+		cache_values = cache1;
+	}
+	
+	public static <T> void sort(long[] keys, T[] values, Comparator<T> tie) {
+		new KeySorter<T>().Sort(keys, values, new Range(0, keys.length), tie);
+	}
+	
+	// the key is checked first, and the tie comparator is only called when the keys are equal
+	int Compare(long key1, T value1, long key2, T value2) {
+		if (key1 != key2) return (key1 < key2) ? -1 : 1;
+		if (tie == null) return 0;
+		return tie.compare(value1, value2);
+	}
+	
+	// same as above, for two items within the array
+	int Compare(int index1, int index2) {
+		long key1 = keys[index1], key2 = keys[index2];
+		if (key1 != key2) return (key1 < key2) ? -1 : 1;
+		if (tie == null) return 0;
+		return tie.compare(values[index1], values[index2]);
+	}
+	
+	void Swap(int index1, int index2) {
+		long key = keys[index1];
+		keys[index1] = keys[index2];
+		keys[index2] = key;
+		if (values != null) {
+			T value = values[index1];
+			values[index1] = values[index2];
+			values[index2] = value;
+		}
+	}
+	
+	void Copy(int from, int to, int length) {
+		java.lang.System.arraycopy(keys, from, keys, to, length);
+		if (values != null) java.lang.System.arraycopy(values, from, values, to, length);
+	}
+	
+	void ToCache(int from, int to, int length) {
+		java.lang.System.arraycopy(keys, from, cache_keys, to, length);
+		if (values != null) java.lang.System.arraycopy(values, from, cache_values, to, length);
+	}
+	
+	void FromCache(int from, int to, int length) {
+		java.lang.System.arraycopy(cache_keys, from, keys, to, length);
+		if (values != null) java.lang.System.arraycopy(cache_values, from, values, to, length);
+	}
+	
+	T Value(int index) {
+		return (values == null) ? null : values[index];
+	}
+	
+	// find the index of the first value within the range that is equal to the given value
+	int BinaryFirst(long key, T value, Range range) {
+		int start = range.start, end = range.end - 1;
+		while (start < end) {
+			int mid = start + (end - start)/2;
+			if (Compare(keys[mid], Value(mid), key, value) < 0)
+				start = mid + 1;
+			else
+				end = mid;
+		}
+		if (start == range.end - 1 && Compare(keys[start], Value(start), key, value) < 0) start++;
+		return start;
+	}
+	
+	// find the index of the last value within the range that is equal to the given value, plus 1
+	int BinaryLast(long key, T value, Range range) {
+		int start = range.start, end = range.end - 1;
+		while (start < end) {
+			int mid = start + (end - start)/2;
+			if (Compare(key, value, keys[mid], Value(mid)) >= 0)
+				start = mid + 1;
+			else
+				end = mid;
+		}
+		if (start == range.end - 1 && Compare(key, value, keys[start], Value(start)) >= 0) start++;
+		return start;
+	}
+	
+	// n^2 sorting algorithm used to sort tiny chunks of the full array
+	void InsertionSort(Range range) {
+		for (int i = range.start + 1; i < range.end; i++) {
+			long key = keys[i]; T value = Value(i); int j;
+			for (j = i; j > range.start && Compare(key, value, keys[j - 1], Value(j - 1)) < 0; j--) {
+				keys[j] = keys[j - 1];
+				if (values != null) values[j] = values[j - 1];
+			}
+			keys[j] = key;
+			if (values != null) values[j] = value;
+		}
+	}
+	
+	// reverse a range within the array
+	void Reverse(Range range) {
+		for (int index = range.length()/2 - 1; index >= 0; index--)
+			Swap(range.start + index, range.end - index - 1);
+	}
+	
+	// swap a series of values in the array
+	void BlockSwap(int start1, int start2, int block_size) {
+		for (int index = 0; index < block_size; index++)
+			Swap(start1 + index, start2 + index);
+	}
+	
+	// rotate the values in an array ([0 1 2 3] becomes [1 2 3 0] if we rotate by 1)
+	void Rotate(int amount, Range range, boolean use_cache) {
+		if (range.length() == 0) return;
+		
+		int split;
+		if (amount >= 0)
+			split = range.start + amount;
+		else
+			split = range.end + amount;
+		
+		Range range1 = new Range(range.start, split);
+		Range range2 = new Range(split, range.end);
+		
+		if (use_cache) {
+			// if the smaller of the two ranges fits into the cache, it's *slightly* faster copying it there and shifting the elements over
+			if (range1.length() <= range2.length()) {
+				if (range1.length() <= cache_size) {
+					ToCache(range1.start, 0, range1.length());
+					Copy(range2.start, range1.start, range2.length());
+					FromCache(0, range1.start + range2.length(), range1.length());
+					return;
+				}
+			} else {
+				if (range2.length() <= cache_size) {
+					ToCache(range2.start, 0, range2.length());
+					Copy(range1.start, range2.end - range1.length(), range1.length());
+					FromCache(0, range1.start, range2.length());
+					return;
+				}
+			}
+		}
+		
+		Reverse(range1);
+		Reverse(range2);
+		Reverse(range);
+	}
+	
+	// standard merge operation using an internal buffer
+	void Merge(Range buffer, Range A, Range B) {
+		// if A fits into the cache, use that instead of the internal buffer
+		if (A.length() <= cache_size)
+			MergeExternal(A, B);
+		else
+			MergeInternal(buffer, A, B);
+	}
+	
+	// merge operation where A has already been copied into the cache
+	void MergeExternal(Range A, Range B) {
+		int A_index = 0;
+		int B_index = B.start;
+		int insert_index = A.start;
+		int A_last = A.length();
+		int B_last = B.end;
+		
+		if (B.length() > 0 && A.length() > 0) {
+			while (true) {
+				if (Compare(keys[B_index], Value(B_index), cache_keys[A_index], cache_values[A_index]) >= 0) {
+					keys[insert_index] = cache_keys[A_index];
+					if (values != null) values[insert_index] = cache_values[A_index];
+					A_index++;
+					insert_index++;
+					if (A_index == A_last) break;
+				} else {
+					keys[insert_index] = keys[B_index];
+					if (values != null) values[insert_index] = values[B_index];
+					B_index++;
+					insert_index++;
+					if (B_index == B_last) break;
+				}
+			}
+		}
+		
+		// copy the remainder of A into the final array
+		FromCache(A_index, insert_index, A_last - A_index);
+	}
+	
+	// merge operation where A has already been swapped into the internal buffer
+	void MergeInternal(Range buffer, Range A, Range B) {
+		// whenever we find a value to add to the final array, swap it with the value that's already in that spot
+		// when this algorithm is finished, 'buffer' will contain its original contents, but in a different order
+		int A_count = 0, B_count = 0, insert = 0;
+		
+		if (B.length() > 0 && A.length() > 0) {
+			while (true) {
+				if (Compare(B.start + B_count, buffer.start + A_count) >= 0) {
+					Swap(A.start + insert, buffer.start + A_count);
+					A_count++;
+					insert++;
+					if (A_count >= A.length()) break;
+				} else {
+					Swap(A.start + insert, B.start + B_count);
+					B_count++;
+					insert++;
+					if (B_count >= B.length()) break;
+				}
+			}
+		}
+		
+		// swap the remainder of A into the final array
+		BlockSwap(buffer.start + A_count, A.start + insert, A.length() - A_count);
+	}
+	
+	// merge operation without a buffer, which is optimized for arrays with a lot of the same values repeated
+	void MergeInPlace(Range A, Range B) {
+		while (A.length() > 0 && B.length() > 0) {
+			// find the first place in B where the first item in A needs to be inserted
+			int split = BinaryFirst(keys[A.start], Value(A.start), B);
+			
+			// rotate A into place
+			int amount = split - A.end;
+			Rotate(-amount, new Range(A.start, split), true);
+			
+			// calculate the new A and B ranges
+			B.start = split;
+			A.set(BinaryLast(keys[A.start + amount], Value(A.start + amount), A), B.start);
+		}
+	}
+	
+	// starting at buffer.start, walk forward until 'goal' unique values have been counted (including the 'count' already found)
+	// long runs of equal values are skipped with a binary search, like in WikiSorter
+	void FindUniqueForward(Range buffer, int end, int count, int goal) {
+		int run = 0;
+		while (buffer.start < end) {
+			if (Compare(buffer.start - 1, buffer.start) != 0) {
+				if (++count == goal) break;
+				buffer.start++;
+				run = 0;
+			} else if (++run < WikiSorter.MIN_SKIP) {
+				buffer.start++;
+			} else {
+				buffer.start = BinaryLast(keys[buffer.start], Value(buffer.start), new Range(buffer.start, end));
+				run = 0;
+			}
+		}
+		buffer.end = buffer.start + count;
+	}
+	
+	// same as above, but walking backward from buffer.start until reaching 'start'
+	void FindUniqueBackward(Range buffer, int start, int count, int goal) {
+		int run = 0;
+		while (buffer.start >= start) {
+			if (Compare(buffer.start, buffer.start + 1) != 0) {
+				if (++count == goal) break;
+				buffer.start--;
+				run = 0;
+			} else if (++run < WikiSorter.MIN_SKIP) {
+				buffer.start--;
+			} else {
+				buffer.start = BinaryFirst(keys[buffer.start + 1], Value(buffer.start + 1), new Range(start, buffer.start + 1)) - 1;
+				run = 0;
+			}
+		}
+		buffer.end = buffer.start + count;
+	}
+	
+	// move the unique values that end at buffer.start to the start of the range, which begins at 'start'
+	// rotating the ones found so far past each run of equal values, and skipping long runs with a binary search
+	void PullUniqueToStart(Range buffer, int start) {
+		int length = buffer.length();
+		int count = 0, run = 0;
+		for (int index = buffer.start; count < length;) {
+			if (index == start || Compare(index - 1, index) != 0) {
+				Rotate(-count, new Range(index + 1, buffer.start + 1), true);
+				buffer.start = index + count; count++;
+				index--;
+				run = 0;
+			} else if (++run < WikiSorter.MIN_SKIP) {
+				index--;
+			} else {
+				index = BinaryFirst(keys[index], Value(index), new Range(start, index));
+				run = 0;
+			}
+		}
+		buffer.set(start, start + length);
+	}
+	
+	// move the unique values that start at buffer.start to the end of the range, which ends at 'end'
+	void PullUniqueToEnd(Range buffer, int end) {
+		int length = buffer.length();
+		int count = 0, run = 0;
+		for (int index = buffer.start; count < length;) {
+			if (index == end - 1 || Compare(index, index + 1) != 0) {
+				Rotate(count, new Range(buffer.start, index), true);
+				buffer.start = index - count; count++;
+				index++;
+				run = 0;
+			} else if (++run < WikiSorter.MIN_SKIP) {
+				index++;
+			} else {
+				index = BinaryLast(keys[index], Value(index), new Range(index, end)) - 1;
+				run = 0;
+			}
+		}
+		buffer.set(end - length, end);
+	}
+	
+	// try to fill up two buffers with unique values in ascending order, and pull them out to the start of A and the end of B
+	// returns false if there weren't enough unique values to do so
+	boolean ExtractBuffers() {
+		// the first item is always going to be the first unique value, so let's start searching at the next index
+		buffer1.start = A.start + 1;
+		FindUniqueForward(buffer1, A.end, 1, buffer_size);
+		
+		// if the size of each block fits into the cache, we only need one buffer for tagging the A blocks
+		if (buffer_size <= cache_size) {
+			buffer2.set(A.start, A.start);
+			
+			if (buffer1.length() == buffer_size) {
+				// we found enough values for the buffer in A
+				bufferA.set(buffer1.start, buffer1.start + buffer_size);
+				bufferB.set(B.end, B.end);
+				buffer1.set(A.start, A.start + buffer_size);
+				
+			} else {
+				// we were unable to find enough unique values in A, so try B
+				bufferA.set(buffer1.start, buffer1.start);
+				buffer1.set(A.start, A.start);
+				
+				buffer1.start = B.end - 2;
+				FindUniqueBackward(buffer1, B.start, 1, buffer_size);
+				
+				if (buffer1.length() == buffer_size) {
+					bufferB.set(buffer1.start, buffer1.start + buffer_size);
+					buffer1.set(B.end - buffer_size, B.end);
+				}
+			}
+		} else {
+			// the first item of the second buffer isn't guaranteed to be the first unique value, so we need to find the first unique item too
+			buffer2.start = buffer1.start + 1;
+			FindUniqueForward(buffer2, A.end, 0, buffer_size);
+			
+			if (buffer2.length() == buffer_size) {
+				// we found enough values for both buffers in A
+				bufferA.set(buffer2.start, buffer2.start + buffer_size * 2);
+				bufferB.set(B.end, B.end);
+				buffer1.set(A.start, A.start + buffer_size);
+				buffer2.set(A.start + buffer_size, A.start + buffer_size * 2);
+				
+			} else if (buffer1.length() == buffer_size) {
+				// we found enough values for one buffer in A, so we'll need to find one buffer in B
+				bufferA.set(buffer1.start, buffer1.start + buffer_size);
+				buffer1.set(A.start, A.start + buffer_size);
+				
+				buffer2.start = B.end - 2;
+				FindUniqueBackward(buffer2, B.start, 1, buffer_size);
+				
+				if (buffer2.length() == buffer_size) {
+					bufferB.set(buffer2.start, buffer2.start + buffer_size);
+					buffer2.set(B.end - buffer_size, B.end);
+					
+				} else buffer1.end = buffer1.start; // failure
+			} else {
+				// we were unable to find a single buffer in A, so we'll need to find two buffers in B
+				buffer1.start = B.end - 2;
+				FindUniqueBackward(buffer1, B.start, 1, buffer_size);
+				
+				buffer2.start = buffer1.start - 1;
+				FindUniqueBackward(buffer2, B.start, 0, buffer_size);
+				
+				if (buffer2.length() == buffer_size) {
+					bufferA.set(A.start, A.start);
+					bufferB.set(buffer2.start, buffer2.start + buffer_size * 2);
+					buffer1.set(B.end - buffer_size, B.end);
+					buffer2.set(buffer1.start - buffer_size, buffer1.start);
+					
+				} else buffer1.end = buffer1.start; // failure
+			}
+		}
+		
+		if (buffer1.length() < buffer_size)
+			return false;
+		
+		// move the unique values to the start of A and the end of B if needed
+		PullUniqueToStart(bufferA, A.start);
+		PullUniqueToEnd(bufferB, B.end);
+		
+		// reuse these buffers next time!
+		level1.set(buffer1.start, buffer1.end);
+		level2.set(buffer2.start, buffer2.end);
+		levelA.set(bufferA.start, bufferA.end);
+		levelB.set(bufferB.start, bufferB.end);
+		return true;
+	}
+	
+	// search the second value of the remaining A blocks to find the minimum A block
+	int FindMinBlock() {
+		int minA = blockA.start + 1;
+		for (int findA = minA + block_size; findA < blockA.end; findA += block_size)
+			if (Compare(findA, minA) < 0) minA = findA;
+		return minA - 1; // decrement once to get back to the start of that A block
+	}
+	
+	// break the remainder of A into blocks and roll them through B, merging each A block with the B values that follow it
+	void RollBlocks() {
+		// break the remainder of A into blocks. firstA is the uneven-sized first A block
+		blockA.set(bufferA.end, A.end);
+		firstA.set(bufferA.end, bufferA.end + blockA.length() % block_size);
+		
+		// swap the second value of each A block with the values in buffer1, so each block is tagged with a unique value
+		int tag = buffer1.start;
+		for (int indexA = firstA.end + 1; indexA < blockA.end; indexA += block_size)
+			Swap(tag++, indexA);
+		
+		// start rolling the A blocks through the B blocks!
+		lastA.set(firstA.start, firstA.end);
+		lastB.set(0, 0);
+		blockB.set(B.start, B.start + Math.min(block_size, B.length() - bufferB.length()));
+		blockA.start += firstA.length();
+		
+		int minA = blockA.start;
+		int indexA = 0;
+		long min_key = keys[minA];
+		T min_value = Value(minA);
+		
+		if (lastA.length() <= cache_size)
+			ToCache(lastA.start, 0, lastA.length());
+		else
+			BlockSwap(lastA.start, buffer2.start, lastA.length());
+		
+		while (true) {
+			// if there's a previous B block and the first value of the minimum A block is <= the last value of the previous B block
+			if ((lastB.length() > 0 && Compare(keys[lastB.end - 1], Value(lastB.end - 1), min_key, min_value) >= 0) || blockB.length() == 0) {
+				// figure out where to split the previous B block, and rotate it at the split
+				int B_split = BinaryFirst(min_key, min_value, lastB);
+				int B_remaining = lastB.end - B_split;
+				
+				// swap the minimum A block to the beginning of the rolling A blocks
+				BlockSwap(blockA.start, minA, block_size);
+				
+				// we need to swap the second item of the previous A block back with its original value, which is stored in buffer1
+				Swap(blockA.start + 1, buffer1.start + indexA);
+				indexA++;
+				
+				// locally merge the previous A block with the B values that follow it, using the buffer as swap space
+				Merge(buffer2, lastA, new Range(lastA.end, B_split));
+				
+				// copy the previous A block into the cache or buffer2, since that's where we need it to be when we go to merge it anyway
+				if (block_size <= cache_size)
+					ToCache(blockA.start, 0, block_size);
+				else
+					BlockSwap(blockA.start, buffer2.start, block_size);
+				
+				// this is equivalent to rotating, but faster
+				BlockSwap(B_split, blockA.start + block_size - B_remaining, B_remaining);
+				
+				// now we need to update the ranges and stuff
+				lastA.set(blockA.start - B_remaining, blockA.start - B_remaining + block_size);
+				lastB.set(lastA.end, lastA.end + B_remaining);
+				
+				blockA.start += block_size;
+				if (blockA.length() == 0)
+					break;
+				
+				minA = FindMinBlock();
+				min_key = keys[minA];
+				min_value = Value(minA);
+				
+			} else if (blockB.length() < block_size) {
+				// move the last B block, which is unevenly sized, to before the remaining A blocks, by using a rotation
+				// (using the cache is disabled since we have the contents of the previous A block in it!)
+				Rotate(-blockB.length(), new Range(blockA.start, blockB.end), false);
+				lastB.set(blockA.start, blockA.start + blockB.length());
+				blockA.start += blockB.length();
+				blockA.end += blockB.length();
+				minA += blockB.length();
+				blockB.end = blockB.start;
+			} else {
+				// roll the leftmost A block to the end by swapping it with the next B block
+				BlockSwap(blockA.start, blockB.start, block_size);
+				lastB.set(blockA.start, blockA.start + block_size);
+				if (minA == blockA.start)
+					minA = blockA.end;
+				
+				blockA.start += block_size;
+				blockA.end += block_size;
+				blockB.start += block_size;
+				blockB.end += block_size;
+				
+				if (blockB.end > bufferB.start)
+					blockB.end = bufferB.start;
+			}
+		}
+		
+		// merge the last A block with the remaining B blocks
+		Merge(buffer2, lastA, new Range(lastA.end, B.end - bufferB.length()));
+	}
+	
+	// merge the two neighboring ranges [start, mid) and [mid, end) within the current level of the sort
+	void MergePair(int start, int mid, int end) {
+		if (Compare(end - 1, start) < 0) {
+			// the two ranges are in reverse order, so a simple rotation should fix it
+			Rotate(mid - start, new Range(start, end), true);
+			
+		} else if (Compare(mid, mid - 1) < 0) {
+			// these two ranges weren't already in order, so we'll need to merge them!
+			A.set(start, mid);
+			B.set(mid, end);
+			
+			// if A fits into the cache, a standard merge is all we need
+			if (A.length() <= cache_size) {
+				ToCache(A.start, 0, A.length());
+				MergeExternal(A, B);
+				return;
+			}
+			
+			if (level1.length() > 0) {
+				// reuse the buffers we found in a previous iteration
+				bufferA.set(A.start, A.start);
+				bufferB.set(B.end, B.end);
+				buffer1.set(level1.start, level1.end);
+				buffer2.set(level2.start, level2.end);
+				
+			} else if (!ExtractBuffers()) {
+				// there are a lot of the same values repeated, so use the merge that is optimized for that
+				MergeInPlace(A, B);
+				return;
+			}
+			
+			RollBlocks();
+		}
+	}
+	
+	// when we're finished with a level, put the internal buffers that were pulled out for it back where they belong
+	void Redistribute() {
+		// insertion sort the jumbled up buffer, then redistribute them back into the array
+		InsertionSort(level2);
+		
+		// redistribute bufferA back into the array
+		int level_start = levelA.start;
+		for (int index = levelA.end; levelA.length() > 0; index++) {
+			if (index == levelB.start || Compare(index, levelA.start) >= 0) {
+				int amount = index - levelA.end;
+				Rotate(-amount, new Range(levelA.start, index), true);
+				levelA.start += (amount + 1);
+				levelA.end += amount;
+				index--;
+			}
+		}
+		
+		// redistribute bufferB back into the array
+		for (int index = levelB.start; levelB.length() > 0; index--) {
+			if (index == level_start || Compare(levelB.end - 1, index - 1) >= 0) {
+				int amount = levelB.start - index;
+				Rotate(amount, new Range(index, levelB.end), true);
+				levelB.start -= amount;
+				levelB.end -= (amount + 1);
+				index++;
+			}
+		}
+	}
+	
+	// the same bottom-up merge sort as WikiSorter.Sort, for a range within the keys (and values)
+	void Sort(long[] keys1, T[] values1, Range range, Comparator<T> tie1) {
+		keys = keys1;
+		values = values1;
+		tie = tie1;
+		
+		SortRange(range);
+		
+		// don't hold on to the caller's arrays
+		if (values != null) Arrays.fill(cache_values, null);
+		keys = null;
+		values = null;
+		tie = null;
+	}
+	
+	void SortRange(Range range) {
+		int size = range.length();
+		
+		// if there are 32 or fewer items, just insertion sort the entire range
+		if (size <= 32) {
+			InsertionSort(range);
+			return;
+		}
+		
+		// calculate how to scale the index value to the range within the array
+		int power_of_two = WikiSorter.FloorPowerOfTwo(size);
+		int fractional_base = power_of_two/16;
+		int fractional_step = size % fractional_base;
+		int decimal_step = size/fractional_base;
+		
+		// first insertion sort everything the lowest level, which is 16-31 items at a time
+		int decimal = 0, fractional = 0;
+		while (decimal < size) {
+			int start = decimal;
+			
+			decimal += decimal_step;
+			fractional += fractional_step;
+			if (fractional >= fractional_base) {
+				fractional -= fractional_base;
+				decimal++;
+			}
+			
+			InsertionSort(new Range(range.start + start, range.start + decimal));
+		}
+		
+		// then merge sort the higher levels, which can be 32-63, 64-127, 128-255, etc.
+		for (int merge_size = 16; merge_size < power_of_two; merge_size += merge_size) {
+			block_size = (int)Math.sqrt(decimal_step);
+			buffer_size = decimal_step/block_size + 1;
+			level1.set(0, 0);
+			
+			decimal = fractional = 0;
+			while (decimal < size) {
+				int start = decimal;
+				
+				decimal += decimal_step;
+				fractional += fractional_step;
+				if (fractional >= fractional_base) {
+					fractional -= fractional_base;
+					decimal++;
+				}
+				
+				int mid = decimal;
+				
+				decimal += decimal_step;
+				fractional += fractional_step;
+				if (fractional >= fractional_base) {
+					fractional -= fractional_base;
+					decimal++;
+				}
+				
+				MergePair(range.start + start, range.start + mid, range.start + decimal);
+			}
+			
+			if (level1.length() > 0) Redistribute();
+			
+			decimal_step += decimal_step;
+			fractional_step += fractional_step;
+			if (fractional_step >= fractional_base) {
+				fractional_step -= fractional_base;
+				decimal_step += 1;
+			}
+		}
+	}
+}
+
+// sorts String and byte[] keys with KeySorter, caching 8 bytes of each key as a long so most comparisons never touch the keys
+// the cached bytes start right after the prefix that every key has in common, since that part can't tell any of them apart
+// (URLs and ids tend to share long prefixes, which would otherwise make the cached bytes useless)
+class StringSorter {
+	public static void sort(String[] array) {
+		if (array.length == 0) return;
+		
+		// find the prefix that every string has in common
+		int common = array[0].length();
+		for (int index = 1; index < array.length; index++) {
+			String string = array[index];
+			int length = Math.min(common, string.length());
+			for (common = 0; common < length; common++)
+				if (string.charAt(common) != array[0].charAt(common)) break;
+		}
+		
+		// if the next 8 characters of every string fit into a byte each, pack all 8 of them, otherwise pack 4 16-bit characters
+		boolean narrow = true;
+		for (int index = 0; index < array.length && narrow; index++) {
+			String string = array[index];
+			int end = Math.min(common + 8, string.length());
+			for (int position = common; position < end; position++)
+				if (string.charAt(position) > 0xFF) { narrow = false; break; }
+		}
+		
+		int bits = narrow ? 8 : 16;
+		long[] keys = new long[array.length];
+		for (int index = 0; index < array.length; index++) {
+			String string = array[index];
+			long key = 0;
+			for (int position = common; position < common + 64/bits; position++) {
+				key <<= bits;
+				if (position < string.length()) key |= string.charAt(position);
+			}
+			
+			// flip the sign bit so comparing the longs as signed values matches comparing the bytes as unsigned values
+			keys[index] = key ^ Long.MIN_VALUE;
+		}
+		
+		// the cached characters can't tell a string that ended apart from one that continues with a zero character,
+		// so ties are checked all the way from the end of the common prefix
+		final int offset = common;
+		KeySorter.sort(keys, array, new Comparator<String>() {
+			public int compare(String a, String b) {
+				int length = Math.min(a.length(), b.length());
+				for (int position = offset; position < length; position++) {
+					char char1 = a.charAt(position), char2 = b.charAt(position);
+					if (char1 != char2) return char1 - char2;
+				}
+				return a.length() - b.length();
+			}
+		});
+	}
+	
+	// byte arrays are compared as unsigned bytes, with a shorter array coming before any longer array that starts with it
+	public static void sort(byte[][] array) {
+		if (array.length == 0) return;
+		
+		// find the prefix that every byte array has in common
+		int common = array[0].length;
+		for (int index = 1; index < array.length; index++) {
+			byte[] bytes = array[index];
+			int length = Math.min(common, bytes.length);
+			for (common = 0; common < length; common++)
+				if (bytes[common] != array[0][common]) break;
+		}
+		
+		long[] keys = new long[array.length];
+		for (int index = 0; index < array.length; index++) {
+			byte[] bytes = array[index];
+			long key = 0;
+			for (int position = common; position < common + 8; position++) {
+				key <<= 8;
+				if (position < bytes.length) key |= bytes[position] & 0xFF;
+			}
+			keys[index] = key ^ Long.MIN_VALUE;
+		}
+		
+		final int offset = common;
+		KeySorter.sort(keys, array, new Comparator<byte[]>() {
+			public int compare(byte[] a, byte[] b) {
+				int length = Math.min(a.length, b.length);
+				for (int position = offset; position < length; position++) {
+					int byte1 = a[position] & 0xFF, byte2 = b[position] & 0xFF;
+					if (byte1 != byte2) return byte1 - byte2;
+				}
+				return a.length - b.length;
+			}
+		});
+	}
+}
+
+// hybrid sort for primitive keys: one or two in-place MSD radix passes (American flag sort) split the array into buckets
+// by the high bits of each key, then each bucket is finished with the WikiSort block merge, or an insertion sort if it's tiny
+// the passes only need a few fixed-size count arrays, so the memory use is still bounded.
+// primitive values that are equal can't be told apart, so stability doesn't apply here
+class RadixSorter {
+	// ranges smaller than this aren't worth a radix pass, since counting 256 buckets would cost more than it saves
+	static final int RADIX_THRESHOLD = 4096;
+	
+	// to decide whether the keys are close to sorted, this many pairs of keys are compared, each STRIDE keys apart
+	static final int SAMPLES = 1024;
+	static final int STRIDE = 16;
+	
+	// the start of each bucket (plus the end of the last one), and the next free position within each bucket, for each pass
+	// (long keys only use two passes, but int keys can use up to four)
+	private int[][] bounds = new int[4][257];
+	private int[][] next = new int[4][256];
+	private KeySorter<Object> sorter = new KeySorter<Object>();
+	
+	public static void sort(long[] array) {
+		new RadixSorter().Sort(array, new Range(0, array.length));
+	}
+	
+	public static void sort(int[] array) {
+		new RadixSorter().Sort(array, new Range(0, array.length));
+	}
+	
+	// 8 bits of the key at 'shift', with the sign bit flipped so negative values come first
+	static int Digit(long value, int shift) {
+		return (int)((value ^ Long.MIN_VALUE) >>> shift) & 0xFF;
+	}
+	
+	static int Digit(int value, int shift) {
+		return ((value ^ Integer.MIN_VALUE) >>> shift) & 0xFF;
+	}
+	
+	// split the range into 256 buckets by the 8 bits at 'shift', by swapping each value directly into the bucket it belongs in
+	void Partition(long[] array, Range range, int shift, int pass) {
+		int[] bounds = this.bounds[pass], next = this.next[pass];
+		Arrays.fill(bounds, 0);
+		for (int index = range.start; index < range.end; index++)
+			bounds[Digit(array[index], shift) + 1]++;
+		
+		bounds[0] = range.start;
+		for (int digit = 0; digit < 256; digit++) {
+			bounds[digit + 1] += bounds[digit];
+			next[digit] = bounds[digit];
+		}
+		
+		for (int digit = 0; digit < 256; digit++) {
+			while (next[digit] < bounds[digit + 1]) {
+				long value = array[next[digit]];
+				int target = Digit(value, shift);
+				if (target == digit) {
+					next[digit]++;
+				} else {
+					// swap the value into the next free spot in the bucket it belongs in, then look at whatever was there
+					array[next[digit]] = array[next[target]];
+					array[next[target]++] = value;
+				}
+			}
+		}
+	}
+	
+	void Partition(int[] array, Range range, int shift, int pass) {
+		int[] bounds = this.bounds[pass], next = this.next[pass];
+		Arrays.fill(bounds, 0);
+		for (int index = range.start; index < range.end; index++)
+			bounds[Digit(array[index], shift) + 1]++;
+		
+		bounds[0] = range.start;
+		for (int digit = 0; digit < 256; digit++) {
+			bounds[digit + 1] += bounds[digit];
+			next[digit] = bounds[digit];
+		}
+		
+		for (int digit = 0; digit < 256; digit++) {
+			while (next[digit] < bounds[digit + 1]) {
+				int value = array[next[digit]];
+				int target = Digit(value, shift);
+				if (target == digit) {
+					next[digit]++;
+				} else {
+					array[next[digit]] = array[next[target]];
+					array[next[target]++] = value;
+				}
+			}
+		}
+	}
+	
+	// radix partition on the highest 8 bits that aren't the same for every key, then the next 8 bits for any bucket that's still large,
+	// then block merge sort each bucket
+	void Sort(long[] array, Range range) {
+		if (range.length() < 2) return;
+		
+		// the block merge skips over pairs of ranges that are already in order, while a radix pass would scatter them,
+		// so compare a sample of keys with the key STRIDE before them to see if they're close to sorted in either direction
+		// (comparing keys that far apart ignores small local jitter, which the block merge handles well
+		// but which makes nearly every other key smaller than the one before it)
+		int far_descents = 0, far_ascents = 0, samples = 0;
+		int step = Math.max((range.length() - STRIDE)/SAMPLES, 1);
+		for (int index = range.start + STRIDE; index < range.end; index += step) {
+			long value = array[index], far = array[index - STRIDE];
+			if (value < far) far_descents++;
+			else if (value > far) far_ascents++;
+			samples++;
+		}
+		
+		// reversed keys are mostly sorted once they're reversed back, and since there are no values
+		// to go with them, the order of equal keys doesn't matter
+		if (far_ascents <= samples/8 && far_descents > samples/8) Reverse(array, range);
+		if (far_ascents <= samples/8 || far_descents <= samples/8) {
+			if (!Sorted(array, range)) sorter.Sort(array, null, range, null);
+			return;
+		}
+		
+		// every key has the same bits above the highest bit where the smallest and largest keys differ, so skip past those
+		long min = array[range.start], max = min;
+		for (int index = range.start + 1; index < range.end; index++) {
+			long value = array[index];
+			if (value < min) min = value;
+			if (value > max) max = value;
+		}
+		int top = 63 - Long.numberOfLeadingZeros(min ^ max);
+		SortRange(array, range, Math.max(top - 7, 0), 0);
+	}
+	
+	// this stops at the first key that's out of order, so it's cheap unless the keys are sorted or nearly so
+	static boolean Sorted(long[] array, Range range) {
+		for (int index = range.start + 1; index < range.end; index++)
+			if (array[index] < array[index - 1]) return false;
+		return true;
+	}
+	
+	static void Reverse(long[] array, Range range) {
+		for (int index = range.length()/2 - 1; index >= 0; index--) {
+			long swap = array[range.start + index];
+			array[range.start + index] = array[range.end - index - 1];
+			array[range.end - index - 1] = swap;
+		}
+	}
+	
+	void SortRange(long[] array, Range range, int shift, int pass) {
+		if (pass == 2 || range.length() < RADIX_THRESHOLD) {
+			sorter.Sort(array, null, range, null);
+			return;
+		}
+		
+		Partition(array, range, shift, pass);
+		if (shift == 0) return;
+		
+		int[] bounds = this.bounds[pass];
+		for (int digit = 0; digit < 256; digit++)
+			if (bounds[digit + 1] - bounds[digit] > 1)
+				SortRange(array, new Range(bounds[digit], bounds[digit + 1]), Math.max(shift - 8, 0), pass + 1);
+	}
+	
+	// the block merge sort only works on long keys, so the int version keeps going with radix passes
+	// until every bit has been used, and uses an insertion sort for tiny buckets
+	void Sort(int[] array, Range range) {
+		if (range.length() < 2) return;
+		
+		int min = array[range.start], max = min;
+		boolean sorted = true;
+		for (int index = range.start + 1; index < range.end; index++) {
+			int value = array[index];
+			if (value < array[index - 1]) sorted = false;
+			if (value < min) min = value;
+			if (value > max) max = value;
+		}
+		if (sorted) return;
+		
+		int top = 31 - Integer.numberOfLeadingZeros(min ^ max);
+		SortRange(array, range, Math.max(top - 7, 0), 0);
+	}
+	
+	void SortRange(int[] array, Range range, int shift, int pass) {
+		if (range.length() <= 32) {
+			InsertionSort(array, range);
+			return;
+		}
+		
+		Partition(array, range, shift, pass);
+		if (shift == 0) return;
+		
+		int[] bounds = this.bounds[pass];
+		for (int digit = 0; digit < 256; digit++)
+			if (bounds[digit + 1] - bounds[digit] > 1)
+				SortRange(array, new Range(bounds[digit], bounds[digit + 1]), Math.max(shift - 8, 0), pass + 1);
+	}
+	
+	// n^2 sorting algorithm used to sort tiny chunks of the full array
+	static void InsertionSort(int[] array, Range range) {
+		for (int i = range.start + 1; i < range.end; i++) {
+			int temp = array[i]; int j;
+			for (j = i; j > range.start && temp < array[j - 1]; j--)
+				array[j] = array[j - 1];
+			array[j] = temp;
+		}
+	}
+}
+
+// one level of a multi-key sort: an int, long, or String key pulled out of each value
+// numeric keys are compared as signed values, and String keys with String.compareTo
+class SortKey<T> {
+	public ToLongFunction<T> number;
+	public Function<T, String> string;
+	
+	public static <T> SortKey<T> ofInt(ToIntFunction<T> key) {
+		SortKey<T> sort_key = new SortKey<T>();
+		sort_key.number = value -> key.applyAsInt(value);
+		return sort_key;
+	}
+	
+	public static <T> SortKey<T> ofLong(ToLongFunction<T> key) {
+		SortKey<T> sort_key = new SortKey<T>();
+		sort_key.number = key;
+		return sort_key;
+	}
+	
+	public static <T> SortKey<T> ofString(Function<T, String> key) {
+		SortKey<T> sort_key = new SortKey<T>();
+		sort_key.string = key;
+		return sort_key;
+	}
+	
+	// a comparator for just this level, for when it can't be packed
+	Comparator<T> Comparator() {
+		if (number != null) return (a, b) -> Long.compare(number.applyAsLong(a), number.applyAsLong(b));
+		return (a, b) -> string.apply(a).compareTo(string.apply(b));
+	}
+}
+
+// stable sort on an ordered list of keys, without chaining comparators
+// each value gets a long that holds the id of its group (the values that are equal on every level sorted so far),
+// followed by as many of the next numeric keys as fit into the remaining bits, offset by their minimum value.
+// those longs are sorted with KeySorter, so consecutive numeric keys only cost one long comparison no matter how many there are.
+// a level that can't be packed (a String key, or one with too wide a range) is sorted by its own comparator instead,
+// one group at a time with WikiSorter, and any group with only one value in it is never touched again.
+// if every key fits into a long (the common case for things like tenant, timestamp, sequence), that's a single sort
+class MultiKeySorter<T> {
+	WikiSorter<T> sorter = new WikiSorter<T>();
+	KeySorter<T> key_sorter = new KeySorter<T>();
+	
+	public static <T> void sort(T[] array, List<SortKey<T>> keys) {
+		new MultiKeySorter<T>().Sort(array, keys);
+	}
+	
+	void Sort(T[] array, List<SortKey<T>> keys) {
+		int size = array.length;
+		if (size < 2) return;
+		
+		// every value starts out in group 0
+		long ids[] = new long[size];
+		int groups = 1, level = 0;
+		
+		while (level < keys.size() && groups < size) {
+			// find the range of each of the next numeric levels, in one pass so each value is only loaded once
+			int first = level, last = level;
+			while (last < keys.size() && keys.get(last).number != null) last++;
+			
+			long mins[] = new long[keys.size()], maxes[] = new long[keys.size()];
+			if (last > first) {
+				for (int pack = first; pack < last; pack++)
+					mins[pack] = maxes[pack] = keys.get(pack).number.applyAsLong(array[0]);
+				for (int index = 1; index < size; index++) {
+					for (int pack = first; pack < last; pack++) {
+						long value = keys.get(pack).number.applyAsLong(array[index]);
+						if (value < mins[pack]) mins[pack] = value;
+						if (value > maxes[pack]) maxes[pack] = value;
+					}
+				}
+			}
+			
+			// then see how many of them can be packed in after the group id
+			int bits = 64 - Long.numberOfLeadingZeros(groups - 1);
+			int widths[] = new int[keys.size()];
+			for (; level < last; level++) {
+				// max - min can overflow, but it's still correct as an unsigned value
+				int width = 64 - Long.numberOfLeadingZeros(maxes[level] - mins[level]);
+				if (bits + width > 64) break;
+				widths[level] = width;
+				bits += width;
+			}
+			
+			if (level > first) {
+				for (int index = 0; index < size; index++) {
+					long packed = ids[index];
+					for (int pack = first; pack < level; pack++) {
+						if (widths[pack] == 0) continue;
+						packed = (packed << widths[pack]) | (keys.get(pack).number.applyAsLong(array[index]) - mins[pack]);
+					}
+					
+					// flip the sign bit so comparing the longs as signed values matches comparing the bits as unsigned values
+					ids[index] = packed ^ Long.MIN_VALUE;
+				}
+				key_sorter.Sort(ids, array, new Range(0, size), null);
+				
+				// the packed keys are only equal for values that are equal on every level so far, so they become the new group ids
+				long previous = ids[0];
+				ids[0] = groups = 0;
+				for (int index = 1; index < size; index++) {
+					if (ids[index] != previous) groups++;
+					previous = ids[index];
+					ids[index] = groups;
+				}
+				groups++;
+				continue;
+			}
+			
+			// this level can't be packed, so sort each group by it separately
+			// the ids don't change within a group, so they stay lined up with the values
+			Comparator<T> comp = keys.get(level).Comparator();
+			for (int start = 0, end; start < size; start = end) {
+				for (end = start + 1; end < size && ids[end] == ids[start]; end++) {}
+				if (end - start > 1) sorter.Sort(array, new Range(start, end), comp);
+			}
+			level++;
+			if (level == keys.size()) break;
+			
+			// then split each group wherever this level changes
+			long previous = ids[0];
+			ids[0] = groups = 0;
+			for (int index = 1; index < size; index++) {
+				if (ids[index] != previous || comp.compare(array[index - 1], array[index]) != 0) groups++;
+				previous = ids[index];
+				ids[index] = groups;
+			}
+			groups++;
+		}
+	}
+}
+
+// set operations on sorted arrays, built on WikiSorter's binary searches
+// each operation steps through both arrays together, but once one side has been skipped over a few times in a row it starts
+// galloping through that side instead, so when one array is much smaller than the other it only takes O(small * log(large))
+// comparisons, while arrays of about the same size still only take one comparison per step.
+// duplicates are allowed, and every operation is stable: the values of A keep their order and come before equal values of B
+class SortedSets<T> {
+	// how many equal values RunEnd steps through before it switches to galloping
+	static final int MIN_GALLOP = 8;
+	
+	// galloping only pays off when one side is much larger than the other, since otherwise most skips are only a value or two long
+	// so this is decided up front: a side gallops only if it's at least this many times longer than the other side
+	static final int GALLOP_RATIO = 8;
+	
+	WikiSorter<T> sorter = new WikiSorter<T>();
+	
+	public static <T> int intersect(T[] a, T[] b, T[] out, Comparator<T> comp) {
+		return new SortedSets<T>().Intersect(a, new Range(0, a.length), b, new Range(0, b.length), out, 0, comp);
+	}
+	
+	public static <T> int difference(T[] a, T[] b, T[] out, Comparator<T> comp) {
+		return new SortedSets<T>().Difference(a, new Range(0, a.length), b, new Range(0, b.length), out, 0, comp);
+	}
+	
+	public static <T> int union(T[] a, T[] b, T[] out, Comparator<T> comp) {
+		return new SortedSets<T>().Union(a, new Range(0, a.length), b, new Range(0, b.length), out, 0, comp);
+	}
+	
+	// whether to gallop through 'range' when skipping past values that are smaller than the next value from 'other'
+	boolean Gallops(Range range, Range other) {
+		return range.length() >= (long)other.length() * GALLOP_RATIO;
+	}
+	
+	// array[index] is known to be smaller than 'value', so gallop past it, along with any others before 'end' that are smaller
+	// this is only used for a side that was chosen to gallop, as the other side just steps to the next value
+	int Skip(T array[], T value, int index, int end, Comparator<T> comp) {
+		return sorter.GallopFirst(array, value, new Range(index + 1, end), comp);
+	}
+	
+	// find the end of the run of values equal to 'value' that starts at array[index]
+	// runs of equal values are usually short, so step through the first few before galloping through the rest
+	int RunEnd(T array[], T value, int index, int end, Comparator<T> comp) {
+		int limit = Math.min(end, index + MIN_GALLOP);
+		while (index < limit && comp.compare(array[index], value) <= 0) index++;
+		if (index < limit || index == end) return index;
+		return sorter.GallopLast(array, value, new Range(index, end), comp);
+	}
+	
+	// write the values of A that have an equal value in B to 'out', and return how many there were
+	// 'out' can be the same array as 'a' as long as out_start <= A.start, in which case the values past the result are left over
+	int Intersect(T a[], Range A, T b[], Range B, T out[], int out_start, Comparator<T> comp) {
+		int A_index = A.start, A_last = A.end;
+		int B_index = B.start, B_last = B.end;
+		int insert = out_start;
+		boolean gallop_A = Gallops(A, B), gallop_B = Gallops(B, A);
+		
+		while (A_index < A_last && B_index < B_last) {
+			int compare = comp.compare(a[A_index], b[B_index]);
+			if (compare < 0) {
+				A_index = gallop_A ? Skip(a, b[B_index], A_index, A_last, comp) : A_index + 1;
+			} else if (compare > 0) {
+				B_index = gallop_B ? Skip(b, a[A_index], B_index, B_last, comp) : B_index + 1;
+			} else {
+				// copy this A value, and compare the next one against the same B value in case it's equal too
+				out[insert++] = a[A_index++];
+			}
+		}
+		
+		return insert - out_start;
+	}
+	
+	// write the values of A that do not have an equal value in B to 'out', and return how many there were
+	// 'out' can be the same array as 'a' as long as out_start <= A.start, in which case the values past the result are left over
+	int Difference(T a[], Range A, T b[], Range B, T out[], int out_start, Comparator<T> comp) {
+		int A_index = A.start, A_last = A.end;
+		int B_index = B.start, B_last = B.end;
+		int insert = out_start;
+		boolean gallop_A = Gallops(A, B), gallop_B = Gallops(B, A);
+		
+		while (A_index < A_last && B_index < B_last) {
+			int compare = comp.compare(a[A_index], b[B_index]);
+			if (compare < 0) {
+				// copy the values of A that are smaller than the next value of B
+				if (!gallop_A) {
+					out[insert++] = a[A_index++];
+				} else {
+					int end = Skip(a, b[B_index], A_index, A_last, comp);
+					java.lang.System.arraycopy(a, A_index, out, insert, end - A_index);
+					insert += end - A_index;
+					A_index = end;
+				}
+			} else if (compare > 0) {
+				B_index = gallop_B ? Skip(b, a[A_index], B_index, B_last, comp) : B_index + 1;
+			} else {
+				// skip the A values that are equal to this one
+				A_index = gallop_A ? RunEnd(a, a[A_index], A_index, A_last, comp) : A_index + 1;
+			}
+		}
+		
+		// anything left in A is bigger than everything in B
+		java.lang.System.arraycopy(a, A_index, out, insert, A_last - A_index);
+		insert += A_last - A_index;
+		
+		return insert - out_start;
+	}
+	
+	// write all of the values of A, along with the values of B that do not have an equal value in A, to 'out' in sorted order
+	// 'out' needs to be a separate array with room for A.length() + B.length() values. returns how many values were written
+	int Union(T a[], Range A, T b[], Range B, T out[], int out_start, Comparator<T> comp) {
+		int A_index = A.start, A_last = A.end;
+		int B_index = B.start, B_last = B.end;
+		int insert = out_start;
+		boolean gallop_A = Gallops(A, B), gallop_B = Gallops(B, A);
+		
+		while (A_index < A_last && B_index < B_last) {
+			int compare = comp.compare(a[A_index], b[B_index]);
+			if (compare < 0) {
+				if (!gallop_A) {
+					out[insert++] = a[A_index++];
+				} else {
+					int end = Skip(a, b[B_index], A_index, A_last, comp);
+					java.lang.System.arraycopy(a, A_index, out, insert, end - A_index);
+					insert += end - A_index;
+					A_index = end;
+				}
+			} else if (compare > 0) {
+				if (!gallop_B) {
+					out[insert++] = b[B_index++];
+				} else {
+					int end = Skip(b, a[A_index], B_index, B_last, comp);
+					java.lang.System.arraycopy(b, B_index, out, insert, end - B_index);
+					insert += end - B_index;
+					B_index = end;
 				}
+			} else {
+				// A already has this value, so skip the B values that are equal to it
+				// (the A value itself is copied once it's smaller than the next value of B)
+				B_index = gallop_B ? RunEnd(b, a[A_index], B_index, B_last, comp) : B_index + 1;
 			}
-			
-			if (level1.length() > 0) {
-				// when we're finished with this step we should have b1 b2 left over, where one of the buffers is all jumbled up
-				// insertion sort the jumbled up buffer, then redistribute them back into the array using the opposite process used for creating the buffer
-				InsertionSort(array, level2, comp);
-				
-				// redistribute bufferA back into the array
-				int level_start = levelA.start;
-				for (int index = levelA.end; levelA.length() > 0; index++) {
-					if (index == levelB.start || comp.compare(array[index], array[levelA.start]) >= 0) {
-						int amount = index - levelA.end;
-						Rotate(array, -amount, new Range(levelA.start, index), true);
-						levelA.start += (amount + 1);
-						levelA.end += amount;
-						index--;
-					}
+		}
+		
+		java.lang.System.arraycopy(a, A_index, out, insert, A_last - A_index);
+		insert += A_last - A_index;
+		java.lang.System.arraycopy(b, B_index, out, insert, B_last - B_index);
+		insert += B_last - B_index;
+		
+		return insert - out_start;
+	}
+	
+	// same as Union, but A and B are neighboring ranges within the same array, and the result is written over them
+	// the values of B that are already in A are swapped to the end (so nothing is lost), and the size of the union is returned
+	int UnionInPlace(T array[], Range A, Range B, Comparator<T> comp) {
+		// swap the values of B that aren't in A down to the start of B, the same way Distinct does
+		// everything at or after 'index' is still untouched, so it's still sorted and can be searched
+		int A_index = A.start, A_last = A.end;
+		int insert = B.start, index = B.start;
+		boolean gallop_A = Gallops(A, B), gallop_B = Gallops(B, A);
+		
+		while (index < B.end) {
+			int end = B.end;
+			if (A_index < A_last) {
+				int compare = comp.compare(array[A_index], array[index]);
+				if (compare < 0) {
+					A_index = gallop_A ? Skip(array, array[index], A_index, A_last, comp) : A_index + 1;
+					continue;
+				} else if (compare == 0) {
+					// A already has this value, so skip the B values that are equal to it
+					index = gallop_B ? RunEnd(array, array[index], index, B.end, comp) : index + 1;
+					continue;
 				}
 				
-				// redistribute bufferB back into the array
-				for (int index = levelB.start; levelB.length() > 0; index--) {
-					if (index == level_start || comp.compare(array[levelB.end - 1], array[index - 1]) >= 0) {
-						int amount = levelB.start - index;
-						Rotate(array, amount, new Range(index, levelB.end), true);
-						levelB.start -= amount;
-						levelB.end -= (amount + 1);
-						index++;
-					}
-				}
+				// keep the B values that are smaller than the next value of A
+				end = gallop_B ? Skip(array, array[A_index], index, B.end, comp) : index + 1;
 			}
 			
-			decimal_step += decimal_step;
-			fractional_step += fractional_step;
-			if (fractional_step >= fractional_base) {
-				fractional_step -= fractional_base;
-				decimal_step += 1;
+			for (; index < end; index++, insert++) {
+				T swap = array[insert];
+				array[insert] = array[index];
+				array[index] = swap;
+			}
+		}
+		
+		sorter.MergeRanges(array, A, new Range(B.start, insert), comp);
+		return insert - A.start;
+	}
+	
+	// call 'join' with the runs of equal values from A and B, for every value that appears in both
+	void Join(T a[], Range A, T b[], Range B, Comparator<T> comp, BiConsumer<Range, Range> join) {
+		int A_index = A.start, A_last = A.end;
+		int B_index = B.start, B_last = B.end;
+		boolean gallop_A = Gallops(A, B), gallop_B = Gallops(B, A);
+		
+		while (A_index < A_last && B_index < B_last) {
+			int compare = comp.compare(a[A_index], b[B_index]);
+			if (compare < 0) {
+				A_index = gallop_A ? Skip(a, b[B_index], A_index, A_last, comp) : A_index + 1;
+			} else if (compare > 0) {
+				B_index = gallop_B ? Skip(b, a[A_index], B_index, B_last, comp) : B_index + 1;
+			} else {
+				int end1 = RunEnd(a, a[A_index], A_index, A_last, comp);
+				int end2 = RunEnd(b, b[B_index], B_index, B_last, comp);
+				join.accept(new Range(A_index, end1), new Range(B_index, end2));
+				A_index = end1;
+				B_index = end2;
+			}
+		}
+	}
+	
+	// write the values of arrays[0] that have an equal value in every other array to 'out', and return how many there were
+	// instead of intersecting two arrays at a time, each candidate value is searched for in every array, and whenever one of them
+	// doesn't have it, the candidates jump ahead to the next value that array does have. only one index per array is kept
+	int IntersectAll(T arrays[][], T out[], int out_start, Comparator<T> comp) {
+		if (arrays.length == 0) return 0;
+		
+		int insert = out_start;
+		int[] positions = new int[arrays.length];
+		T[] first = arrays[0];
+		Range candidates = new Range(0, first.length);
+		
+		search: while (candidates.length() > 0) {
+			T value = first[candidates.start];
+			
+			for (int index = 1; index < arrays.length; index++) {
+				T[] array = arrays[index];
+				positions[index] = sorter.GallopFirst(array, value, new Range(positions[index], array.length), comp);
+				if (positions[index] == array.length) break search;
+				
+				if (comp.compare(array[positions[index]], value) != 0) {
+					// this array doesn't have the value, so skip ahead to the next value it does have
+					candidates.start = sorter.GallopFirst(first, array[positions[index]], candidates, comp);
+					continue search;
+				}
 			}
+			
+			// every array had it, so copy the run of equal values from the first array
+			int end = sorter.GallopLast(first, value, candidates, comp);
+			java.lang.System.arraycopy(first, candidates.start, out, insert, end - candidates.start);
+			insert += end - candidates.start;
+			candidates.start = end;
 		}
+		
+		return insert - out_start;
 	}
 }
 
@@ -761,6 +2857,77 @@ class TestingMostlyEqual extends Testing {
 	}
 }
 
+// a sample of real keys saved to a compact binary file, so the sorters can be tested against the data that matters
+// the format is the magic number "WSRT", a version number, the number of keys, then each key as a varint,
+// zigzag-encoded difference from the previous key. runs of ascending, descending, or equal keys turn into small differences,
+// so they only take up a byte or two each
+class Workload {
+	static final int MAGIC = 0x57535254;
+	static final int VERSION = 1;
+	
+	// save the keys in the given range of the array, in their current order so any runs in the data are kept intact
+	// (use a contiguous range rather than picking keys from all over the array, or the runs will be lost)
+	static <T> void Capture(String filename, T[] array, Range range, ToIntFunction<? super T> key) throws IOException {
+		int[] keys = new int[range.length()];
+		for (int index = 0; index < keys.length; index++)
+			keys[index] = key.applyAsInt(array[range.start + index]);
+		Save(filename, keys);
+	}
+	
+	static void Save(String filename, int keys[]) throws IOException {
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)));
+		try {
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeInt(keys.length);
+			
+			long previous = 0;
+			for (int index = 0; index < keys.length; index++) {
+				long delta = keys[index] - previous;
+				long zigzag = (delta << 1) ^ (delta >> 63);
+				while ((zigzag & ~0x7FL) != 0) {
+					output.writeByte((int)(zigzag & 0x7F) | 0x80);
+					zigzag >>>= 7;
+				}
+				output.writeByte((int)zigzag);
+				previous = keys[index];
+			}
+		} finally {
+			output.close();
+		}
+	}
+	
+	static int[] Load(String filename) throws IOException {
+		DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)));
+		try {
+			if (input.readInt() != MAGIC) throw new IOException(filename + " is not a workload file");
+			int version = input.readInt();
+			if (version != VERSION) throw new IOException(filename + " has unsupported version " + version);
+			int count = input.readInt();
+			if (count < 0) throw new IOException(filename + " has an invalid key count");
+			
+			int[] keys = new int[count];
+			long previous = 0;
+			for (int index = 0; index < count; index++) {
+				long zigzag = 0;
+				int shift = 0, value;
+				do {
+					if (shift > 63) throw new IOException(filename + " has an invalid key at index " + index);
+					value = input.readUnsignedByte();
+					zigzag |= (long)(value & 0x7F) << shift;
+					shift += 7;
+				} while ((value & 0x80) != 0);
+				
+				previous += (zigzag >>> 1) ^ -(zigzag & 1);
+				keys[index] = (int)previous;
+			}
+			return keys;
+		} finally {
+			input.close();
+		}
+	}
+}
+
 class WikiSort {
 	static double Seconds() {
 		return System.currentTimeMillis()/1000.0;
@@ -787,6 +2954,7 @@ class WikiSort {
 		TestComparator comp = new TestComparator();
 		Test[] array1;
 		Test[] array2;
+		Test[] array3;
 		
 		Testing[] test_cases = {
 			new TestingPathological(),
@@ -803,10 +2971,32 @@ class WikiSort {
 		WikiSorter<Test> Wiki = new WikiSorter<Test>();
 		MergeSorter<Test> Merge = new MergeSorter<Test>();
 		
+		// java WikiSort capture <file> <test case> <count> saves one of the test cases as a workload file
+		// java WikiSort replay <file>... runs each workload file through the sorters
+		if (args.length == 4 && args[0].equals("capture")) {
+			for (int test_case = 0; test_case < test_cases.length; test_case++) {
+				if (test_cases[test_case].getClass().getName().equals("Testing" + args[2])) {
+					int count = Integer.parseInt(args[3]);
+					int[] keys = new int[count];
+					for (int index = 0; index < count; index++)
+						keys[index] = test_cases[test_case].value(index, count);
+					Workload.Save(args[1], keys);
+					return;
+				}
+			}
+			throw new Exception("unknown test case: " + args[2]);
+		}
+		if (args.length >= 2 && args[0].equals("replay")) {
+			for (int file = 1; file < args.length; file++)
+				Replay(args[file]);
+			return;
+		}
+		
 		System.out.println("running test cases...");
 		int total = max_size;
 		array1 = new Test[total];
 		array2 = new Test[total];
+		array3 = new Test[total];
 		
 		for (int test_case = 0; test_case < test_cases.length; test_case++) {
 			
@@ -818,6 +3008,7 @@ class WikiSort {
 				
 				array1[index] = item;
 				array2[index] = item;
+				array3[index] = item;
 			}
 			
 			Wiki.Sort(array1, comp);
@@ -830,7 +3021,39 @@ class WikiSort {
 				if (comp.compare(array1[index], array2[index]) != 0) throw new Exception();
 				if (array2[index].index != array1[index].index) throw new Exception();
 			}
+			
+			// the resumable sort should get the same results when it's run a little at a time,
+			// and each step should only go past the work it was given by as much as it takes to reach the next checkpoint
+			CountingComparator<Test> counter = new CountingComparator<Test>(comp);
+			WikiSortJob<Test> job = Wiki.Start(array3, counter);
+			long step_limit = 4096 + 4 * (long)Math.sqrt(total);
+			for (boolean more = true; more;) {
+				long count = counter.count;
+				more = job.step(4096);
+				if (counter.count - count > step_limit)
+					throw new Exception("one step of the resumable sort took " + (counter.count - count) + " comparisons");
+			}
+			
+			Verify(array3, new Range(0, total), comp, "resumable test case failed");
+			for (int index = 0; index < total; index++)
+				if (array2[index].index != array3[index].index) throw new Exception();
+			
+			// the unique values should be the first (or last) of each run of equal values in the merge sorted array
+			int unique_first = Wiki.Distinct(array1, new Range(0, total), comp, false);
+			int unique_last = Wiki.Distinct(array3, new Range(0, total), comp, true);
+			if (unique_first != unique_last) throw new Exception();
+			int unique = 0;
+			for (int index = 0; index < total; index++) {
+				if (index == 0 || comp.compare(array2[index - 1], array2[index]) != 0)
+					if (array1[unique].index != array2[index].index) throw new Exception();
+				if (index == total - 1 || comp.compare(array2[index], array2[index + 1]) != 0)
+					if (array3[unique++].index != array2[index].index) throw new Exception();
+			}
+			if (unique != unique_first) throw new Exception();
 		}
+		VerifyComplete(Wiki, comp);
+		VerifyGroupBy(Wiki);
+		VerifySets(Wiki, comp);
 		System.out.println("passed!");
 		
 		double total_time = Seconds();
@@ -879,5 +3102,643 @@ class WikiSort {
 		total_time = Seconds() - total_time;
 		System.out.println("tests completed in " + total_time + " seconds");
 		System.out.println("wiki: " + total_time1 + ", merge: " + total_time2 + " (" + total_time2/total_time1 * 100 + "%)");
+		
+		BenchmarkDistinct(Wiki, comp, max_size);
+		BenchmarkResort(Wiki, comp, max_size);
+		BenchmarkStrings(max_size);
+		BenchmarkRadix(test_cases, max_size);
+		BenchmarkSets(Wiki, comp, max_size);
+		BenchmarkPartition(Wiki, max_size);
+		BenchmarkMultiKey(max_size);
+	}
+	
+	// stop resumable sorts partway through, then either complete the merge in progress and finish the sort, or cancel it
+	// few unique values make the merges fall back to the in-place merge, which takes far more work than one budget,
+	// so complete() is given a small budget to make sure it keeps refilling it instead of spinning once it runs out
+	static void VerifyComplete(WikiSorter<Test> Wiki, TestComparator comp) throws java.lang.Exception {
+		int[] sizes = { 5000, 20000, 100000 };
+		int[] unique = { 2, 10, 50, 1000 };
+		boolean in_place = false;
+		
+		for (int test_case = 0; test_case < sizes.length; test_case++) {
+			for (int values = 0; values < unique.length; values++) {
+				for (int cancel = 0; cancel < 2; cancel++) {
+					int size = sizes[test_case];
+					Test[] array = new Test[size];
+					for (int index = 0; index < size; index++) {
+						array[index] = new Test();
+						array[index].value = SortRandom.nextInt(unique[values]);
+						array[index].index = index;
+					}
+					
+					// stop at the first in-place merge, or after a random number of steps if there isn't one
+					WikiSortJob<Test> job = Wiki.Start(array, comp);
+					int steps = SortRandom.nextInt(size/100);
+					for (int step = 0; step < steps && job.phase != WikiSortJob.MERGE_IN_PLACE; step++)
+						if (!job.step(4096)) break;
+					if (job.phase == WikiSortJob.MERGE_IN_PLACE) in_place = true;
+					
+					if (cancel == 1) {
+						job.cancel();
+						if (!job.isDone() || job.busy()) throw new Exception("cancel() left the job running");
+						Set<Test> kept = Collections.newSetFromMap(new IdentityHashMap<Test, Boolean>());
+						kept.addAll(Arrays.asList(array));
+						if (kept.size() != size) throw new Exception("cancel() lost a value");
+						for (int index = 0; index < size; index++)
+							if (array[index] == null) throw new Exception("cancel() lost a value");
+					} else {
+						job.complete(64);
+						if (job.busy()) throw new Exception("complete() left a merge partway done");
+						job.finish();
+						Verify(array, new Range(0, size), comp, "completed job failed");
+					}
+				}
+			}
+		}
+		if (!in_place) throw new Exception("none of the jobs reached an in-place merge");
+	}
+	
+	// check GroupBy against a stable counting sort, and make sure a key outside of [0, k) is rejected before anything is moved
+	static void VerifyGroupBy(WikiSorter<Test> Wiki) throws java.lang.Exception {
+		int[] sizes = { 0, 1, 100, 5000 };
+		for (int test_case = 0; test_case < sizes.length; test_case++) {
+			int size = sizes[test_case];
+			for (int k = 1; k <= 17; k += 4) {
+				final int groups = k;
+				Test[] array = new Test[size];
+				for (int index = 0; index < size; index++) {
+					array[index] = new Test();
+					array[index].value = SortRandom.nextInt(k);
+					array[index].index = index;
+				}
+				
+				Test[] expected = new Test[size];
+				int insert = 0;
+				for (int group = 0; group < k; group++)
+					for (int index = 0; index < size; index++)
+						if (array[index].value == group) expected[insert++] = array[index];
+				
+				int[] offsets = Wiki.GroupBy(array, value -> value.value, groups);
+				if (offsets[0] != 0 || offsets[k] != size) throw new Exception();
+				for (int group = 0; group < k; group++)
+					for (int index = offsets[group]; index < offsets[group + 1]; index++)
+						if (array[index].value != group) throw new Exception();
+				for (int index = 0; index < size; index++)
+					if (array[index] != expected[index]) throw new Exception();
+			}
+		}
+		
+		int[] bad_keys = { -1, 4, -2, Integer.MIN_VALUE };
+		for (int test_case = 0; test_case < bad_keys.length; test_case++) {
+			Test[] array = new Test[100];
+			for (int index = 0; index < array.length; index++) {
+				array[index] = new Test();
+				array[index].value = (index == 57) ? bad_keys[test_case] : SortRandom.nextInt(4);
+				array[index].index = index;
+			}
+			
+			boolean thrown = false;
+			try {
+				Wiki.GroupBy(array, value -> value.value, 4);
+			} catch (IllegalArgumentException exception) {
+				thrown = true;
+			}
+			if (!thrown) throw new Exception("GroupBy accepted the key " + bad_keys[test_case]);
+			for (int index = 0; index < array.length; index++)
+				if (array[index].index != index) throw new Exception("GroupBy moved values before rejecting a key");
+		}
+	}
+	
+	// a sorted array of 'size' values between 0 and 'values', for checking the set operations
+	static Test[] SortedTests(WikiSorter<Test> Wiki, TestComparator comp, int size, int values) {
+		Test[] array = new Test[size];
+		for (int index = 0; index < size; index++) {
+			array[index] = new Test();
+			array[index].value = SortRandom.nextInt(values);
+			array[index].index = index;
+		}
+		Wiki.Sort(array, comp);
+		return array;
+	}
+	
+	static boolean Contains(Test array[], Test value, TestComparator comp) {
+		for (int index = 0; index < array.length; index++)
+			if (comp.compare(array[index], value) == 0) return true;
+		return false;
+	}
+	
+	static void VerifySame(String operation, Test actual[], int count, ArrayList<Test> expected) throws java.lang.Exception {
+		if (count != expected.size()) throw new Exception(operation + " returned " + count + " values instead of " + expected.size());
+		for (int index = 0; index < count; index++)
+			if (actual[index] != expected.get(index)) throw new Exception(operation + " has the wrong value at index " + index);
+	}
+	
+	// check each of the SortedSets operations, and the MergeRanges that UnionInPlace uses, against versions that search the whole array
+	// the sizes include skewed ones (so the larger side gallops), small B ranges, and arrays with only a few unique values
+	static void VerifySets(WikiSorter<Test> Wiki, TestComparator comp) throws java.lang.Exception {
+		SortedSets<Test> Sets = new SortedSets<Test>();
+		int[][] sizes = { { 0, 0 }, { 0, 5 }, { 5, 0 }, { 1, 1 }, { 50, 50 }, { 100, 60 }, { 400, 20 }, { 20, 400 },
+			{ 1000, 3 }, { 3, 1000 }, { 2000, 120 }, { 5000, 1 }, { 5000, 40 } };
+		int[] unique = { 4, 10000 };
+		
+		for (int test_case = 0; test_case < sizes.length; test_case++) {
+			for (int values = 0; values < unique.length; values++) {
+				Test[] a = SortedTests(Wiki, comp, sizes[test_case][0], unique[values]);
+				Test[] b = SortedTests(Wiki, comp, sizes[test_case][1], unique[values]);
+				Test[] c = SortedTests(Wiki, comp, sizes[test_case][1] * 2 + 10, unique[values]);
+				Range A = new Range(0, a.length), B = new Range(0, b.length);
+				Test[] out = new Test[a.length + b.length];
+				
+				ArrayList<Test> intersect = new ArrayList<Test>(), difference = new ArrayList<Test>();
+				ArrayList<Test> intersect_all = new ArrayList<Test>(), union = new ArrayList<Test>();
+				for (int index = 0; index < a.length; index++) {
+					if (Contains(b, a[index], comp)) {
+						intersect.add(a[index]);
+						if (Contains(c, a[index], comp)) intersect_all.add(a[index]);
+					} else {
+						difference.add(a[index]);
+					}
+					union.add(a[index]);
+				}
+				for (int index = 0; index < b.length; index++)
+					if (!Contains(a, b[index], comp)) union.add(b[index]);
+				Collections.sort(union, comp);
+				
+				VerifySame("Intersect", out, Sets.Intersect(a, A, b, B, out, 0, comp), intersect);
+				VerifySame("Difference", out, Sets.Difference(a, A, b, B, out, 0, comp), difference);
+				VerifySame("Union", out, Sets.Union(a, A, b, B, out, 0, comp), union);
+				VerifySame("IntersectAll", out, Sets.IntersectAll(new Test[][] { a, b, c }, out, 0, comp), intersect_all);
+				
+				// Join should be called once for each value in both arrays, with the full run of that value from each of them
+				final ArrayList<Range> joined = new ArrayList<Range>();
+				Sets.Join(a, A, b, B, comp, (run1, run2) -> { joined.add(run1); joined.add(run2); });
+				int join = 0;
+				for (int index = 0; index < a.length; index++) {
+					if (index > 0 && comp.compare(a[index - 1], a[index]) == 0) continue;
+					int end1 = index, start2 = 0;
+					while (end1 < a.length && comp.compare(a[end1], a[index]) == 0) end1++;
+					while (start2 < b.length && comp.compare(b[start2], a[index]) < 0) start2++;
+					int end2 = start2;
+					while (end2 < b.length && comp.compare(b[end2], a[index]) == 0) end2++;
+					if (start2 == end2) continue;
+					
+					if (join + 2 > joined.size()) throw new Exception("Join skipped a value");
+					Range run1 = joined.get(join++), run2 = joined.get(join++);
+					if (run1.start != index || run1.end != end1 || run2.start != start2 || run2.end != end2)
+						throw new Exception("Join returned the wrong runs");
+				}
+				if (join != joined.size()) throw new Exception("Join returned too many runs");
+				
+				VerifyInPlace(Wiki, Sets, a, b, union, comp);
+			}
+		}
+		
+		// large neighboring ranges with only a few unique values, which is too few for MergeRanges to fill its buffers,
+		// so it falls back to merging in place, both when B is smaller than A and when A is smaller than B
+		// B's values are either the same as A's, or all in between them so UnionInPlace keeps every value of B
+		int[][] large_sizes = { { 300000, 3000 }, { 200000, 200000 }, { 3000, 300000 } };
+		for (int test_case = 0; test_case < large_sizes.length; test_case++) {
+			for (int between = 0; between < 2; between++) {
+				Test[] a = SortedTests(Wiki, comp, large_sizes[test_case][0], 20);
+				Test[] b = SortedTests(Wiki, comp, large_sizes[test_case][1], 20);
+				for (int index = 0; index < a.length; index++)
+					a[index].value *= 2;
+				for (int index = 0; index < b.length; index++)
+					b[index].value = b[index].value * 2 + between;
+				
+				// Union was already checked against the naive version above
+				Test[] out = new Test[a.length + b.length];
+				int count = Sets.Union(a, new Range(0, a.length), b, new Range(0, b.length), out, 0, comp);
+				VerifyInPlace(Wiki, Sets, a, b, new ArrayList<Test>(Arrays.asList(out).subList(0, count)), comp);
+			}
+		}
+	}
+	
+	// MergeRanges on a followed by b should match a stable merge, and UnionInPlace should match 'union' while keeping every value
+	static void VerifyInPlace(WikiSorter<Test> Wiki, SortedSets<Test> Sets, Test a[], Test b[], ArrayList<Test> union, TestComparator comp) throws java.lang.Exception {
+		Test[] array = new Test[a.length + b.length];
+		java.lang.System.arraycopy(a, 0, array, 0, a.length);
+		java.lang.System.arraycopy(b, 0, array, a.length, b.length);
+		Test[] merged = array.clone();
+		Arrays.sort(merged, comp);
+		Test[] merge = array.clone();
+		Wiki.MergeRanges(merge, new Range(0, a.length), new Range(a.length, merge.length), comp);
+		for (int index = 0; index < merge.length; index++)
+			if (merge[index] != merged[index]) throw new Exception("MergeRanges has the wrong value at index " + index);
+		
+		int count = Sets.UnionInPlace(array, new Range(0, a.length), new Range(a.length, array.length), comp);
+		VerifySame("UnionInPlace", array, count, union);
+		Set<Test> kept = Collections.newSetFromMap(new IdentityHashMap<Test, Boolean>());
+		kept.addAll(Arrays.asList(array));
+		if (kept.size() != array.length || !kept.containsAll(Arrays.asList(merged))) throw new Exception("UnionInPlace lost a value");
+	}
+	
+	// compare Intersect against stepping through both arrays one value at a time, for balanced sizes (where it should step too) and skewed ones (where it gallops)
+	static void BenchmarkSets(WikiSorter<Test> Wiki, TestComparator comp, int total) throws java.lang.Exception {
+		SortedSets<Test> Sets = new SortedSets<Test>();
+		int[] sizes = { total, total/2, total/10, 1000 };
+		
+		// call the comparator through the interface in both loops, so the only difference is how they step
+		Comparator<Test> compare = comp;
+		
+		Test[] array1 = new Test[total];
+		for (int index = 0; index < total; index++) {
+			array1[index] = new Test();
+			array1[index].value = SortRandom.nextInt(total * 2);
+			array1[index].index = index;
+		}
+		Wiki.Sort(array1, comp);
+		
+		for (int test_case = 0; test_case < sizes.length; test_case++) {
+			Test[] array2 = new Test[sizes[test_case]];
+			for (int index = 0; index < array2.length; index++) {
+				array2[index] = new Test();
+				array2[index].value = SortRandom.nextInt(total * 2);
+				array2[index].index = index;
+			}
+			Wiki.Sort(array2, comp);
+			
+			Test[] out1 = new Test[total], out2 = new Test[total];
+			int count1 = 0, count2 = 0;
+			
+			// keep the best of a few rounds, since a single run mostly measures how long the JIT takes to compile each loop
+			// and alternate which one goes first, so neither of them always runs with a warmer cache
+			double time1 = Double.MAX_VALUE, time2 = Double.MAX_VALUE;
+			for (int round = 0; round < 15; round++) {
+				for (int pass = 0; pass < 2; pass++) {
+					double time = Seconds();
+					if ((round + pass) % 2 == 0) {
+						count1 = Sets.Intersect(array1, new Range(0, total), array2, new Range(0, array2.length), out1, 0, compare);
+						time1 = Math.min(time1, Seconds() - time);
+					} else {
+						count2 = 0;
+						int index1 = 0, index2 = 0;
+						while (index1 < total && index2 < array2.length) {
+							int result = compare.compare(array1[index1], array2[index2]);
+							if (result < 0) index1++;
+							else if (result > 0) index2++;
+							else {
+								// keep every value of array1 that has an equal value in array2, like Intersect does
+								out2[count2++] = array1[index1++];
+							}
+						}
+						time2 = Math.min(time2, Seconds() - time);
+					}
+				}
+			}
+			
+			if (count1 != count2) throw new Exception();
+			for (int index = 0; index < count1; index++)
+				if (out1[index] != out2[index]) throw new Exception();
+			
+			System.out.println("[intersect " + total + " x " + array2.length + "] " + count1 + " matches, sets: " + time1 + ", linear: " + time2 + " (" + time2/time1 * 100 + "%)");
+		}
+	}
+	
+	// compare Partition and GroupBy against copying into a second array, and against a full sort with a synthetic comparator
+	static void BenchmarkPartition(WikiSorter<Test> Wiki, int total) throws java.lang.Exception {
+		int[] groups = { 2, 16, 256 };
+		
+		Test[] original = new Test[total];
+		for (int index = 0; index < total; index++) {
+			original[index] = new Test();
+			original[index].value = SortRandom.nextInt(total);
+			original[index].index = index;
+		}
+		
+		for (int test_case = 0; test_case < groups.length; test_case++) {
+			final int k = groups[test_case];
+			ToIntFunction<Test> key = value -> value.value % k;
+			Comparator<Test> comp = (a, b) -> Integer.compare(key.applyAsInt(a), key.applyAsInt(b));
+			Test[] array1 = null, array2 = null, array3 = null;
+			
+			// keep the best of a few rounds, like BenchmarkSets
+			double time1 = Double.MAX_VALUE, time2 = Double.MAX_VALUE, time3 = Double.MAX_VALUE;
+			for (int round = 0; round < 3; round++) {
+				array1 = original.clone();
+				double time = Seconds();
+				if (k == 2) Wiki.Partition(array1, value -> key.applyAsInt(value) == 0);
+				else Wiki.GroupBy(array1, key, k);
+				time1 = Math.min(time1, Seconds() - time);
+				
+				// the copy-based version counts the keys, then copies each value to its group in a second array
+				array2 = original.clone();
+				time = Seconds();
+				int[] offsets = new int[k + 1];
+				for (int index = 0; index < total; index++)
+					offsets[key.applyAsInt(array2[index]) + 1]++;
+				for (int index = 1; index <= k; index++)
+					offsets[index] += offsets[index - 1];
+				Test[] copy = new Test[total];
+				for (int index = 0; index < total; index++)
+					copy[offsets[key.applyAsInt(array2[index])]++] = array2[index];
+				java.lang.System.arraycopy(copy, 0, array2, 0, total);
+				time2 = Math.min(time2, Seconds() - time);
+				
+				array3 = original.clone();
+				time = Seconds();
+				Wiki.Sort(array3, comp);
+				time3 = Math.min(time3, Seconds() - time);
+			}
+			
+			for (int index = 0; index < total; index++)
+				if (array1[index] != array2[index] || array1[index] != array3[index]) throw new Exception();
+			
+			System.out.println("[" + (k == 2 ? "partition" : "group by " + k) + "] in place: " + time1 + ", copy: " + time2 + " (" + time2/time1 * 100 + "%), sort: " + time3 + " (" + time3/time1 * 100 + "%)");
+		}
+	}
+	
+	// compare MultiKeySorter against WikiSorter with a chained comparator, for keys that all pack into a long and for a mix with a String
+	static void BenchmarkMultiKey(int total) throws java.lang.Exception {
+		TestRecord[] original = new TestRecord[total];
+		for (int index = 0; index < total; index++) {
+			original[index] = new TestRecord();
+			original[index].tenant = SortRandom.nextInt(1000);
+			original[index].timestamp = 1700000000000L + SortRandom.nextInt(86400000);
+			original[index].sequence = SortRandom.nextInt(65536);
+			original[index].name = "user" + SortRandom.nextInt(5000);
+		}
+		
+		for (int test_case = 0; test_case < 2; test_case++) {
+			List<SortKey<TestRecord>> keys = new ArrayList<SortKey<TestRecord>>();
+			Comparator<TestRecord> comp;
+			String name;
+			if (test_case == 0) {
+				name = "tenant, timestamp, sequence";
+				keys.add(SortKey.ofInt(record -> record.tenant));
+				keys.add(SortKey.ofLong(record -> record.timestamp));
+				keys.add(SortKey.ofInt(record -> record.sequence));
+				comp = Comparator.<TestRecord>comparingInt(record -> record.tenant).thenComparingLong(record -> record.timestamp).thenComparingInt(record -> record.sequence);
+			} else {
+				name = "tenant, name, sequence";
+				keys.add(SortKey.ofInt(record -> record.tenant));
+				keys.add(SortKey.ofString(record -> record.name));
+				keys.add(SortKey.ofInt(record -> record.sequence));
+				comp = Comparator.<TestRecord>comparingInt(record -> record.tenant).thenComparing(record -> record.name).thenComparingInt(record -> record.sequence);
+			}
+			
+			TestRecord[] array1 = null, array2 = null;
+			
+			// keep the best of a few rounds, like BenchmarkSets
+			double time1 = Double.MAX_VALUE, time2 = Double.MAX_VALUE;
+			for (int round = 0; round < 3; round++) {
+				array1 = original.clone();
+				double time = Seconds();
+				MultiKeySorter.sort(array1, keys);
+				time1 = Math.min(time1, Seconds() - time);
+				
+				array2 = original.clone();
+				time = Seconds();
+				WikiSorter.sort(array2, comp);
+				time2 = Math.min(time2, Seconds() - time);
+			}
+			
+			for (int index = 0; index < total; index++)
+				if (array1[index] != array2[index]) throw new Exception();
+			
+			System.out.println("[multi-key " + name + "] keys: " + time1 + ", chained comparator: " + time2 + " (" + time2/time1 * 100 + "%)");
+		}
+	}
+	
+	// compare the radix front end against the pure block merge sort, for long and int keys from each of the test cases
+	static void BenchmarkRadix(Testing[] test_cases, int total) throws java.lang.Exception {
+		for (int test_case = 0; test_case < test_cases.length; test_case++) {
+			long[] original = new long[total];
+			for (int index = 0; index < total; index++)
+				original[index] = test_cases[test_case].value(index, total);
+			long[] array1 = null, array2 = null;
+			int[] array3 = null;
+			
+			// keep the best of a few rounds, like BenchmarkSets
+			double time1 = Double.MAX_VALUE, time2 = Double.MAX_VALUE, time3 = Double.MAX_VALUE;
+			for (int round = 0; round < 5; round++) {
+				array1 = original.clone();
+				array2 = original.clone();
+				array3 = new int[total];
+				for (int index = 0; index < total; index++)
+					array3[index] = (int)original[index];
+				
+				double time = Seconds();
+				RadixSorter.sort(array1);
+				time1 = Math.min(time1, Seconds() - time);
+				
+				time = Seconds();
+				KeySorter.sort(array2, null, null);
+				time2 = Math.min(time2, Seconds() - time);
+				
+				time = Seconds();
+				RadixSorter.sort(array3);
+				time3 = Math.min(time3, Seconds() - time);
+			}
+			
+			for (int index = 0; index < total; index++)
+				if (array1[index] != array2[index] || array3[index] != array2[index]) throw new Exception();
+			
+			System.out.println("[radix " + test_cases[test_case].getClass().getName() + "] long radix: " + time1 + ", int radix: " + time3 + ", wiki: " + time2 + " (" + time2/time1 * 100 + "%)");
+		}
+	}
+	
+	// compare StringSorter against WikiSorter with a plain string comparator, on URL-like and id-like keys with long common prefixes
+	static void BenchmarkStrings(int total) throws java.lang.Exception {
+		String[] names = { "urls", "ids" };
+		Comparator<String> comp = new Comparator<String>() {
+			public int compare(String a, String b) {
+				return a.compareTo(b);
+			}
+		};
+		
+		for (int test_case = 0; test_case < names.length; test_case++) {
+			String[] array1 = new String[total];
+			for (int index = 0; index < total; index++) {
+				if (test_case == 0)
+					array1[index] = "https://www.example.com/users/" + SortRandom.nextInt(total) + "/profile";
+				else
+					array1[index] = String.format("order-%012d", SortRandom.nextInt());
+			}
+			String[] array2 = array1.clone();
+			
+			byte[][] array3 = new byte[total][];
+			for (int index = 0; index < total; index++)
+				array3[index] = array1[index].getBytes("ISO-8859-1");
+			
+			double time1 = Seconds();
+			StringSorter.sort(array1);
+			time1 = Seconds() - time1;
+			
+			double time2 = Seconds();
+			WikiSorter.sort(array2, comp);
+			time2 = Seconds() - time2;
+			
+			double time3 = Seconds();
+			StringSorter.sort(array3);
+			time3 = Seconds() - time3;
+			
+			for (int index = 0; index < total; index++) {
+				if (!array1[index].equals(array2[index])) throw new Exception();
+				if (!array1[index].equals(new String(array3[index], "ISO-8859-1"))) throw new Exception();
+			}
+			
+			System.out.println("[strings " + names[test_case] + "] string sorter: " + time1 + ", byte[] sorter: " + time3 + ", wiki: " + time2 + " (" + time2/time1 * 100 + "%)");
+		}
+	}
+	
+	// change a few values within a sorted array, then compare Resort against sorting the whole thing again
+	// with only a few unique values, there aren't enough of them for the block merge's buffers once more than sqrt(n) values change,
+	// so those cases go through the in-place fallback within MergeRanges
+	static void BenchmarkResort(WikiSorter<Test> Wiki, TestComparator comp, int total) throws java.lang.Exception {
+		MergeSorter<Test> Merge = new MergeSorter<Test>();
+		int[] dirty_counts = { 1, 10, 100, 1000, total/100, total/10 };
+		int[] unique_counts = { total, 100 };
+		
+		for (int unique = 0; unique < unique_counts.length; unique++) {
+			int values = unique_counts[unique];
+			Test[] sorted = new Test[total];
+			for (int index = 0; index < total; index++) {
+				sorted[index] = new Test();
+				sorted[index].value = SortRandom.nextInt(values);
+			}
+			Wiki.Sort(sorted, comp);
+			for (int index = 0; index < total; index++)
+				sorted[index].index = index;
+			
+			for (int test_case = 0; test_case < dirty_counts.length; test_case++) {
+				int[] dirty = new int[dirty_counts[test_case]];
+				final boolean[] changed = new boolean[total];
+				Test[] array1 = sorted.clone();
+				
+				for (int index = 0; index < dirty.length; index++) {
+					dirty[index] = SortRandom.nextInt(total);
+					changed[dirty[index]] = true;
+					
+					Test item = new Test();
+					item.value = SortRandom.nextInt(values);
+					item.index = dirty[index];
+					array1[dirty[index]] = item;
+				}
+				
+				Test[] array2 = array1.clone();
+				Test[] array3 = array1.clone();
+				
+				double time1 = Seconds();
+				Wiki.Resort(array1, dirty, comp);
+				time1 = Seconds() - time1;
+				
+				double time2 = Seconds();
+				Wiki.Sort(array2, comp);
+				time2 = Seconds() - time2;
+				
+				// the changed values should end up after any unchanged values that are equal to them
+				Merge.Sort(array3, new Comparator<Test>() {
+					public int compare(Test a, Test b) {
+						if (a.value != b.value) return (a.value < b.value) ? -1 : 1;
+						if (changed[a.index] != changed[b.index]) return changed[a.index] ? 1 : -1;
+						return Integer.compare(a.index, b.index);
+					}
+				});
+				
+				for (int index = 0; index < total; index++)
+					if (array1[index] != array3[index]) throw new Exception();
+				
+				System.out.println("[resort " + dirty.length + " of " + values + " unique] resort: " + time1 + ", sort: " + time2 + " (" + time2/time1 * 100 + "%)");
+			}
+		}
+	}
+	
+	// bytes allocated by this thread so far, or -1 if the JVM can't tell us
+	static long AllocatedBytes() {
+		java.lang.management.ThreadMXBean bean = java.lang.management.ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		return -1;
+	}
+	
+	// run the keys from a workload file through each of the sorters, and report the time, comparisons, and allocations for each
+	// every sorter gets a few runs to warm up, and the fastest run is the one reported
+	static void Replay(String filename) throws java.lang.Exception {
+		int[] keys = Workload.Load(filename);
+		String[] names = { "wiki", "merge", "Arrays.sort" };
+		WikiSorter<Test> Wiki = new WikiSorter<Test>();
+		MergeSorter<Test> Merge = new MergeSorter<Test>();
+		Test[] expected = null;
+		
+		System.out.println("[" + filename + "] " + keys.length + " keys");
+		for (int sorter = 0; sorter < names.length; sorter++) {
+			double best_time = Double.MAX_VALUE;
+			long comparisons = 0, allocated = 0;
+			Test[] array = null;
+			
+			for (int run = 0; run < 5; run++) {
+				array = new Test[keys.length];
+				for (int index = 0; index < keys.length; index++) {
+					array[index] = new Test();
+					array[index].value = keys[index];
+					array[index].index = index;
+				}
+				
+				CountingComparator<Test> comp = new CountingComparator<Test>(new TestComparator());
+				long bytes = AllocatedBytes();
+				double time = Seconds();
+				if (sorter == 0) Wiki.Sort(array, comp);
+				else if (sorter == 1) Merge.Sort(array, comp);
+				else Arrays.sort(array, comp);
+				time = Seconds() - time;
+				bytes = (bytes < 0) ? -1 : AllocatedBytes() - bytes;
+				
+				if (time < best_time) best_time = time;
+				comparisons = comp.count;
+				allocated = bytes;
+			}
+			
+			// all of the sorters are stable, so they should agree on the exact order
+			if (expected == null) expected = array;
+			for (int index = 0; index < keys.length; index++)
+				if (array[index].index != expected[index].index) throw new Exception();
+			
+			System.out.println("  " + names[sorter] + ": " + best_time + " seconds, " + comparisons + " comparisons, " +
+				((allocated < 0) ? "unknown" : String.valueOf(allocated)) + " bytes allocated");
+		}
+	}
+	
+	// compare SortDistinct against sorting and then copying the unique values out into a new array
+	static void BenchmarkDistinct(WikiSorter<Test> Wiki, TestComparator comp, int total) throws java.lang.Exception {
+		Testing[] test_cases = {
+			new TestingRandom(),
+			new TestingMostlyEqual(),
+			new TestingJittered()
+		};
+		
+		for (int test_case = 0; test_case < test_cases.length; test_case++) {
+			Test[] array1 = new Test[total];
+			Test[] array2 = new Test[total];
+			
+			for (int index = 0; index < total; index++) {
+				Test item = new Test();
+				
+				item.value = test_cases[test_case].value(index, total);
+				item.index = index;
+				
+				array1[index] = item;
+				array2[index] = item;
+			}
+			
+			double time1 = Seconds();
+			int count1 = Wiki.SortDistinct(array1, comp, false);
+			time1 = Seconds() - time1;
+			
+			double time2 = Seconds();
+			Wiki.Sort(array2, comp);
+			ArrayList<Test> distinct = new ArrayList<Test>();
+			for (int index = 0; index < total; index++)
+				if (index == 0 || comp.compare(array2[index - 1], array2[index]) != 0)
+					distinct.add(array2[index]);
+			Test[] array3 = distinct.toArray(new Test[0]);
+			time2 = Seconds() - time2;
+			
+			if (count1 != array3.length) throw new Exception();
+			for (int index = 0; index < count1; index++)
+				if (array1[index] != array3[index]) throw new Exception();
+			
+			System.out.println("[distinct " + test_cases[test_case].getClass().getName() + "] " + count1 + " unique, sortDistinct: " + time1 + ", sort then dedup: " + time2 + " (" + time2/time1 * 100 + "%)");
+		}
 	}
 }